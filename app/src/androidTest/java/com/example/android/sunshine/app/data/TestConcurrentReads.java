@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Reads forecasts through the provider while another connection holds a write transaction
+    open, like the sync adapter storing a forecast while the list loads.  With the write-ahead
+    log the reads go through right away; with the rollback journal every one of them would wait
+    for the transaction to end.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final int READS = 50;
+    // How long the writer keeps its transaction open at most, waiting for the reads
+    private static final long WRITE_TRANSACTION_MILLIS = 10000;
+    // Far below WRITE_TRANSACTION_MILLIS: a read taking that long has waited for the writer
+    private static final long MAX_READ_MILLIS = 1000;
+
+    private WeatherDbHelper mDbHelper;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Through the provider, which has the database open and caches forecasts
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        for (ContentValues values : TestProvider.createBulkInsertWeatherValues(mLocationRowId)) {
+            WeatherStorage.insert(db, values);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testWriteAheadLogEnabled() {
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery("PRAGMA journal_mode", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Error: the database isn't in write-ahead log mode",
+                    "wal", cursor.getString(0).toLowerCase());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testReadsDuringWriteTransaction() throws InterruptedException {
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch readsDone = new CountDownLatch(1);
+
+        Thread writer = new Thread("WeatherWriter") {
+            @Override
+            public void run() {
+                SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    // Rewrite the forecast, as a sync does, and hold on to the transaction
+                    for (ContentValues values :
+                            TestProvider.createBulkInsertWeatherValues(mLocationRowId)) {
+                        values.put(WeatherEntry.COLUMN_MAX_TEMP, 0);
+                        WeatherStorage.insert(db, values);
+                    }
+                    inTransaction.countDown();
+                    readsDone.await(WRITE_TRANSACTION_MILLIS, TimeUnit.MILLISECONDS);
+                    db.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        };
+        writer.start();
+        assertTrue("Error: the writer didn't start its transaction",
+                inTransaction.await(WRITE_TRANSACTION_MILLIS, TimeUnit.MILLISECONDS));
+
+        // All the columns, which the provider doesn't cache: these reads go to SQLite
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        long[] latencies = new long[READS];
+        try {
+            for (int i = 0; i < READS; i++) {
+                long start = System.nanoTime();
+                Cursor cursor = mContext.getContentResolver().query(uri, null, null, null,
+                        WeatherEntry.COLUMN_DATE + " ASC");
+                try {
+                    assertEquals(TestProvider.BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+                    // The transaction isn't committed yet, so the reads see the old forecast
+                    cursor.moveToFirst();
+                    assertTrue(cursor.getDouble(cursor.getColumnIndex(
+                            WeatherEntry.COLUMN_MAX_TEMP)) != 0);
+                } finally {
+                    cursor.close();
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+        } finally {
+            readsDone.countDown();
+            writer.join();
+        }
+
+        Arrays.sort(latencies);
+        long medianMillis = TimeUnit.NANOSECONDS.toMillis(latencies[READS / 2]);
+        long p95Millis = TimeUnit.NANOSECONDS.toMillis(latencies[READS * 95 / 100]);
+        long maxMillis = TimeUnit.NANOSECONDS.toMillis(latencies[READS - 1]);
+        Log.i(LOG_TAG, "Read latency during a write transaction: median " + medianMillis +
+                " ms, p95 " + p95Millis + " ms, max " + maxMillis + " ms");
+        assertTrue("Error: a read waited " + maxMillis + " ms for the writer",
+                maxMillis < MAX_READ_MILLIS);
+    }
+}
@@ -55,6 +55,9 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherStorage.TABLE_WEATHER_DATA);
+        tableNameHashSet.add(WeatherStorage.TABLE_DESCRIPTION);
+        tableNameHashSet.add(WeatherHistory.TABLE_WEEKS);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -62,7 +65,9 @@ public class TestDb extends AndroidTestCase {
         assertEquals(true, db.isOpen());
 
         // have we created the tables we want?
-        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null);
+        // The weather table is a view over the tables it's actually stored in
+        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type IN ('table', 'view')",
+                null);
 
         assertTrue("Error: This means that the database has not been created correctly",
                 c.moveToFirst());
@@ -91,6 +96,7 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_CITY_ID);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -145,7 +151,7 @@ public class TestDb extends AndroidTestCase {
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
         // Third Step (Weather): Insert ContentValues into database and get a row ID back
-        long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+        long weatherRowId = WeatherStorage.insert(db, weatherValues);
         assertTrue(weatherRowId != -1);
 
         // Fourth Step: Query the database and receive a Cursor back
@@ -177,6 +183,54 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        The weather rows are stored compactly behind the weather view: each description once,
+        and measurements as integers, read back to the hundredth they are stored with.
+     */
+    public void testCompactStorage() {
+        long locationRowId = insertLocation();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 21.349);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1013.254);
+        assertTrue(WeatherStorage.insert(db, weatherValues) != -1);
+        ContentValues nextDayValues = new ContentValues(weatherValues);
+        nextDayValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                TestUtilities.TEST_DATE + 1000 * 60 * 60 * 24);
+        assertTrue(WeatherStorage.insert(db, nextDayValues) != -1);
+
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + WeatherStorage.TABLE_DESCRIPTION,
+                null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the description isn't stored once", 1, cursor.getInt(0));
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT typeof(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP +
+                "), typeof(" + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ") FROM " +
+                WeatherStorage.TABLE_WEATHER_DATA, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: temperatures aren't stored as integers", "integer",
+                cursor.getString(0));
+        assertEquals("Error: pressures aren't stored as integers", "integer",
+                cursor.getString(1));
+        cursor.close();
+
+        cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                        WeatherContract.WeatherEntry.COLUMN_SHORT_DESC},
+                null, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(21.35, cursor.getDouble(0));
+        assertEquals(1013.25, cursor.getDouble(1));
+        assertEquals("Asteroids", cursor.getString(2));
+        cursor.close();
+        dbHelper.close();
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+    Builds a database as an older version of the app left it, with a forecast in it, and checks
+    that WeatherDbHelper upgrades it to the very schema a fresh install gets, keeping the
+    forecast.  Every version from WeatherDbHelper.FIRST_MIGRATED_VERSION on is tested.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    // The schema of WeatherDbHelper.FIRST_MIGRATED_VERSION, as it shipped.  Never change these.
+    private static final String SQL_CREATE_LOCATION_TABLE_V2 = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, " +
+            "coord_lat REAL NOT NULL, " +
+            "coord_long REAL NOT NULL " +
+            " );";
+
+    private static final String SQL_CREATE_WEATHER_TABLE_V2 = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, " +
+            "short_desc TEXT NOT NULL, " +
+            "weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        SQLiteDatabase freshDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        Set<String> freshSchema = readSchema(freshDb);
+        freshDb.close();
+
+        for (int version = WeatherDbHelper.FIRST_MIGRATED_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            long locationRowId = createDatabase(version);
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            try {
+                assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+                assertEquals("Error: upgrading from version " + version +
+                        " doesn't give the schema of a fresh install", freshSchema, readSchema(db));
+
+                Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                        WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[]{Long.toString(locationRowId)}, null, null, null);
+                TestUtilities.validateCursor("Error: upgrading from version " + version +
+                        " lost the forecast", cursor,
+                        TestUtilities.createWeatherValues(locationRowId));
+                cursor.close();
+
+                cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+                TestUtilities.validateCursor("Error: upgrading from version " + version +
+                        " lost the location", cursor,
+                        TestUtilities.createNorthPoleLocationValues());
+                cursor.close();
+            } finally {
+                dbHelper.close();
+            }
+        }
+    }
+
+    /**
+     * Creates the database as the given version left it, with a location and its forecast.
+     *
+     * @return the row id of the location.
+     */
+    private long createDatabase(int version) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+        try {
+            db.execSQL(SQL_CREATE_LOCATION_TABLE_V2);
+            db.execSQL(SQL_CREATE_WEATHER_TABLE_V2);
+            for (int from = WeatherDbHelper.FIRST_MIGRATED_VERSION; from < version; from++) {
+                WeatherDbHelper.upgradeFrom(db, from);
+            }
+            db.setVersion(version);
+
+            long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                    TestUtilities.createNorthPoleLocationValues());
+            assertTrue(locationRowId != -1);
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            // Up to version 4 the weather table was a table, it's a view since
+            long weatherRowId = version <= 4
+                    ? db.insert(WeatherEntry.TABLE_NAME, null, weatherValues)
+                    : WeatherStorage.insert(db, weatherValues);
+            assertTrue(weatherRowId != -1);
+            return locationRowId;
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * @return the columns of every table, and the indexes, in a form that can be compared.
+     */
+    private static Set<String> readSchema(SQLiteDatabase db) {
+        Set<String> schema = new HashSet<String>();
+        Cursor tables = db.rawQuery("SELECT type, name, tbl_name FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (tables.moveToNext()) {
+                String type = tables.getString(0);
+                String name = tables.getString(1);
+                schema.add(type + " " + name + " on " + tables.getString(2));
+                if (!"table".equals(type)) {
+                    continue;
+                }
+                Cursor columns = db.rawQuery("PRAGMA table_info(" + name + ")", null);
+                try {
+                    while (columns.moveToNext()) {
+                        schema.add(name + "." + columns.getString(columns.getColumnIndex("name"))
+                                + " " + columns.getString(columns.getColumnIndex("type"))
+                                + " notnull=" + columns.getInt(columns.getColumnIndex("notnull")));
+                    }
+                } finally {
+                    columns.close();
+                }
+            }
+        } finally {
+            tables.close();
+        }
+        return schema;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the forecasts the provider answers from its cache read exactly as the ones
+    SQLite answers, and that the provider's writes invalidate them.
+ */
+public class TestForecastCache extends AndroidTestCase {
+
+    // What the list, the detail view and the widgets ask for
+    private static final String[][] PROJECTIONS = {
+            {
+                    WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                    WeatherEntry.COLUMN_DATE,
+                    WeatherEntry.COLUMN_SHORT_DESC,
+                    WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherEntry.COLUMN_MIN_TEMP,
+                    LocationEntry.COLUMN_LOCATION_SETTING,
+                    WeatherEntry.COLUMN_WEATHER_ID,
+                    LocationEntry.COLUMN_COORD_LAT,
+                    LocationEntry.COLUMN_COORD_LONG
+            },
+            {
+                    WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                    WeatherEntry.COLUMN_DATE,
+                    WeatherEntry.COLUMN_SHORT_DESC,
+                    WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherEntry.COLUMN_MIN_TEMP,
+                    WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherEntry.COLUMN_PRESSURE,
+                    WeatherEntry.COLUMN_WIND_SPEED,
+                    WeatherEntry.COLUMN_DEGREES,
+                    WeatherEntry.COLUMN_WEATHER_ID,
+                    LocationEntry.TABLE_NAME + "." + LocationEntry._ID,
+                    LocationEntry.COLUMN_CITY_NAME,
+                    LocationEntry.COLUMN_CITY_ID
+            }
+    };
+
+    private ContentValues[] mWeatherValues;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mWeatherValues = TestProvider.createBulkInsertWeatherValues(
+                ContentUris.parseId(locationUri));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, mWeatherValues);
+    }
+
+    public void testCachedForecastMatchesDatabase() {
+        long startDate = WeatherContract.normalizeDate(
+                mWeatherValues[2].getAsLong(WeatherEntry.COLUMN_DATE));
+        long date = WeatherContract.normalizeDate(
+                mWeatherValues[4].getAsLong(WeatherEntry.COLUMN_DATE));
+        Uri[] uris = {
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        startDate),
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, date)
+        };
+        String[][] selectionArgs = {
+                {TestUtilities.TEST_LOCATION},
+                {TestUtilities.TEST_LOCATION, Long.toString(startDate)},
+                {TestUtilities.TEST_LOCATION, Long.toString(date)}
+        };
+        String[] selections = {
+                WeatherProvider.sLocationSettingSelection,
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                WeatherProvider.sLocationSettingAndDaySelection
+        };
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        try {
+            for (String[] projection : PROJECTIONS) {
+                for (int i = 0; i < uris.length; i++) {
+                    // Twice: the first query fills the cache, the second one reads it
+                    for (int pass = 0; pass < 2; pass++) {
+                        Cursor expected = WeatherProvider.sWeatherByLocationSettingQueryBuilder
+                                .query(dbHelper.getReadableDatabase(), projection, selections[i],
+                                        selectionArgs[i], null, null,
+                                        WeatherEntry.COLUMN_DATE + " ASC");
+                        Cursor actual = mContext.getContentResolver().query(uris[i], projection,
+                                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+                        assertSameCursor(uris[i] + ", pass " + pass, expected, actual);
+                        expected.close();
+                        actual.close();
+                    }
+                }
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    public void testWritesInvalidateCache() {
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        String[] projection = {WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP};
+
+        Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null, null);
+        assertEquals(TestProvider.BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        int count = mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues,
+                null, null);
+        assertEquals(TestProvider.BULK_INSERT_RECORDS_TO_INSERT, count);
+
+        cursor = mContext.getContentResolver().query(uri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the cache wasn't invalidated by an update",
+                100.0, cursor.getDouble(1));
+        cursor.close();
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(uri, projection, null, null, null);
+        assertEquals("Error: the cache wasn't invalidated by a delete", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    private static void assertSameCursor(String error, Cursor expected, Cursor actual) {
+        assertEquals(error, expected.getCount(), actual.getCount());
+        assertEquals(error, expected.getColumnCount(), actual.getColumnCount());
+        for (int column = 0; column < expected.getColumnCount(); column++) {
+            assertEquals(error, expected.getColumnName(column), actual.getColumnName(column));
+        }
+        while (expected.moveToNext()) {
+            assertTrue(error, actual.moveToNext());
+            for (int column = 0; column < expected.getColumnCount(); column++) {
+                String columnError = error + ", column " + expected.getColumnName(column);
+                assertEquals(columnError, expected.getType(column), actual.getType(column));
+                assertEquals(columnError, expected.getString(column), actual.getString(column));
+                assertEquals(columnError, expected.getLong(column), actual.getLong(column));
+                assertEquals(columnError, expected.getDouble(column), actual.getDouble(column));
+            }
+        }
+    }
+}
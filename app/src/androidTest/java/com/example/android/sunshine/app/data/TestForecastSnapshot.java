@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+/*
+    Publishes forecasts as mapped files and reads them back, and times reading a forecast from
+    the file against querying it from the provider.
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastSnapshot.class.getSimpleName();
+
+    private static final String OTHER_LOCATION = "London, UK";
+
+    private static final int WARM_UP_READS = 20;
+    private static final int TIMED_READS = 200;
+
+    private WeatherBatch mBatch;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ForecastSnapshot.deleteAllExcept(mContext, Collections.<String>emptyList());
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues[] weatherValues = TestProvider.createBulkInsertWeatherValues(
+                ContentUris.parseId(locationUri));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+        // The days as the provider stores them
+        for (ContentValues values : weatherValues) {
+            values.put(WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(values.getAsLong(WeatherEntry.COLUMN_DATE)));
+        }
+        mBatch = WeatherBatch.fromContentValues(weatherValues);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastSnapshot.deleteAllExcept(mContext, Collections.<String>emptyList());
+        super.tearDown();
+    }
+
+    public void testPublishAndOpen() throws IOException {
+        assertNull("Error: a forecast was found before any was published",
+                ForecastSnapshot.open(mContext, TestUtilities.TEST_LOCATION));
+
+        ForecastSnapshot.publish(mContext, TestUtilities.TEST_LOCATION, mBatch, 1234L);
+        ForecastSnapshot snapshot = ForecastSnapshot.open(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: the published forecast can't be opened", snapshot);
+        assertEquals(TestUtilities.TEST_LOCATION, snapshot.getLocationSetting());
+        assertEquals(1234L, snapshot.getPublishedMillis());
+        assertSameForecast(mBatch, snapshot);
+
+        assertNull("Error: the forecast of another location was found",
+                ForecastSnapshot.open(mContext, OTHER_LOCATION));
+    }
+
+    public void testFirstRowFrom() throws IOException {
+        ForecastSnapshot.publish(mContext, TestUtilities.TEST_LOCATION, mBatch, 0);
+        ForecastSnapshot snapshot = ForecastSnapshot.open(mContext, TestUtilities.TEST_LOCATION);
+
+        assertEquals(0, snapshot.firstRowFrom(Long.MIN_VALUE));
+        for (int row = 0; row < mBatch.size(); row++) {
+            assertEquals(row, snapshot.firstRowFrom(mBatch.getDate(row)));
+            // Any time of the day before is still before this day
+            assertEquals(row, snapshot.firstRowFrom(mBatch.getDate(row) - 1));
+        }
+        assertEquals(mBatch.size(), snapshot.firstRowFrom(Long.MAX_VALUE));
+    }
+
+    public void testReplaceWhileMapped() throws IOException {
+        ForecastSnapshot.publish(mContext, TestUtilities.TEST_LOCATION, mBatch, 1L);
+        ForecastSnapshot oldSnapshot = ForecastSnapshot.open(mContext,
+                TestUtilities.TEST_LOCATION);
+
+        WeatherBatch newBatch = new WeatherBatch();
+        for (int row = 0; row < mBatch.size(); row++) {
+            newBatch.add(mBatch.getLocationId(row), mBatch.getDate(row), 800, "Clear",
+                    row, row + 10, 50, 1000, 2, 180);
+        }
+        ForecastSnapshot.publish(mContext, TestUtilities.TEST_LOCATION, newBatch, 2L);
+
+        // The old mapping still reads the forecast it was opened with, whole
+        assertEquals(1L, oldSnapshot.getPublishedMillis());
+        assertSameForecast(mBatch, oldSnapshot);
+
+        ForecastSnapshot newSnapshot = ForecastSnapshot.open(mContext,
+                TestUtilities.TEST_LOCATION);
+        assertEquals(2L, newSnapshot.getPublishedMillis());
+        assertSameForecast(newBatch, newSnapshot);
+    }
+
+    public void testOpenIgnoresUnknownFiles() throws IOException {
+        ForecastSnapshot.publish(mContext, TestUtilities.TEST_LOCATION, mBatch, 0);
+        File[] files = new File(mContext.getFilesDir(), "forecasts").listFiles();
+        assertEquals(1, files.length);
+
+        // Not a forecast, or cut short
+        FileOutputStream out = new FileOutputStream(files[0]);
+        try {
+            out.write(new byte[]{'S', 'U', 'N', 'F', 0, 0, 0, 0, 0, 0, 0, 0});
+        } finally {
+            out.close();
+        }
+        assertNull("Error: an unreadable forecast was opened",
+                ForecastSnapshot.open(mContext, TestUtilities.TEST_LOCATION));
+    }
+
+    public void testDeleteAllExcept() throws IOException {
+        ForecastSnapshot.publish(mContext, TestUtilities.TEST_LOCATION, mBatch, 0);
+        ForecastSnapshot.publish(mContext, OTHER_LOCATION, mBatch, 0);
+
+        ForecastSnapshot.deleteAllExcept(mContext, Collections.singleton(OTHER_LOCATION));
+        assertFalse(ForecastSnapshot.exists(mContext, TestUtilities.TEST_LOCATION));
+        assertTrue(ForecastSnapshot.exists(mContext, OTHER_LOCATION));
+    }
+
+    /*
+        What the detail widget reads for every day: the forecast from the provider, whose
+        cache answers the query, against the mapped file, opened for every read as the widget
+        does and kept open.
+     */
+    public void testReadBenchmark() throws IOException {
+        ForecastSnapshot.publish(mContext, TestUtilities.TEST_LOCATION, mBatch, 0);
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                mBatch.getDate(0));
+        String[] projection = {
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_MIN_TEMP
+        };
+
+        long[] queryNanos = new long[TIMED_READS];
+        long[] openNanos = new long[TIMED_READS];
+        long[] mappedNanos = new long[TIMED_READS];
+        double expectedSum = sumOfTemps(mBatch);
+        ForecastSnapshot mapped = ForecastSnapshot.open(mContext, TestUtilities.TEST_LOCATION);
+        for (int i = -WARM_UP_READS; i < TIMED_READS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            double sum = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getLong(0);
+                    cursor.getInt(1);
+                    cursor.getString(2);
+                    sum += cursor.getDouble(3) + cursor.getDouble(4);
+                }
+            } finally {
+                cursor.close();
+            }
+            long queried = System.nanoTime();
+            double openSum = sumOfTemps(
+                    ForecastSnapshot.open(mContext, TestUtilities.TEST_LOCATION));
+            long opened = System.nanoTime();
+            double mappedSum = sumOfTemps(mapped);
+            long end = System.nanoTime();
+
+            assertEquals(expectedSum, sum);
+            assertEquals(expectedSum, openSum);
+            assertEquals(expectedSum, mappedSum);
+            if (i >= 0) {
+                queryNanos[i] = queried - start;
+                openNanos[i] = opened - queried;
+                mappedNanos[i] = end - opened;
+            }
+        }
+
+        long queryMedian = median(queryNanos);
+        long openMedian = median(openNanos);
+        long mappedMedian = median(mappedNanos);
+        Log.i(LOG_TAG, "Median time to read " + mBatch.size() + " days: provider query "
+                + queryMedian + " ns, opening the mapped file " + openMedian
+                + " ns, mapped file already open " + mappedMedian + " ns");
+        assertTrue("Error: reading the mapped file took " + mappedMedian
+                        + " ns, querying the provider " + queryMedian + " ns",
+                mappedMedian < queryMedian);
+    }
+
+    private static double sumOfTemps(WeatherBatch batch) {
+        double sum = 0;
+        for (int row = 0; row < batch.size(); row++) {
+            sum += batch.getMaxTemp(row) + batch.getMinTemp(row);
+        }
+        return sum;
+    }
+
+    private static double sumOfTemps(ForecastSnapshot snapshot) {
+        double sum = 0;
+        for (int row = 0; row < snapshot.getCount(); row++) {
+            snapshot.getDate(row);
+            snapshot.getWeatherId(row);
+            snapshot.getShortDesc(row);
+            sum += snapshot.getMaxTemp(row) + snapshot.getMinTemp(row);
+        }
+        return sum;
+    }
+
+    private static long median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void assertSameForecast(WeatherBatch expected, ForecastSnapshot actual) {
+        assertEquals(expected.size(), actual.getCount());
+        for (int row = 0; row < expected.size(); row++) {
+            String error = "Error: row " + row;
+            assertEquals(error, expected.getDate(row), actual.getDate(row));
+            assertEquals(error, expected.getWeatherId(row), actual.getWeatherId(row));
+            assertEquals(error, expected.getShortDesc(row), actual.getShortDesc(row));
+            assertEquals(error, expected.getMinTemp(row), actual.getMinTemp(row));
+            assertEquals(error, expected.getMaxTemp(row), actual.getMaxTemp(row));
+            assertEquals(error, expected.getHumidity(row), actual.getHumidity(row));
+            assertEquals(error, expected.getPressure(row), actual.getPressure(row));
+            assertEquals(error, expected.getWindSpeed(row), actual.getWindSpeed(row));
+            assertEquals(error, expected.getDegrees(row), actual.getDegrees(row));
+        }
+    }
+}
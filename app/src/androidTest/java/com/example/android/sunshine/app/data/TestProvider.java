@@ -16,20 +16,27 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
+import android.os.RemoteException;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -56,6 +63,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                WeatherContract.HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -160,6 +172,20 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/history/94074
+        type = mContext.getContentResolver().getType(
+                WeatherContract.HistoryEntry.buildHistoryLocation(testLocation));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/history
+        assertEquals("Error: the HistoryEntry CONTENT_URI with location should return HistoryEntry.CONTENT_TYPE",
+                WeatherContract.HistoryEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/weather_locations?location=94074&...
+        type = mContext.getContentResolver().getType(WeatherEntry.buildWeatherLocations(
+                new String[]{testLocation}, testDate, testDate));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/weather
+        assertEquals("Error: the WeatherEntry URI of several locations should return WeatherEntry.CONTENT_TYPE",
+                WeatherEntry.CONTENT_TYPE, type);
     }
 
 
@@ -179,7 +205,7 @@ public class TestProvider extends AndroidTestCase {
         // Fantastic.  Now that we have a location, add some weather!
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
-        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+        long weatherRowId = WeatherStorage.insert(db, weatherValues);
         assertTrue("Unable to Insert WeatherEntry into the Database", weatherRowId != -1);
 
         db.close();
@@ -422,7 +448,7 @@ public class TestProvider extends AndroidTestCase {
     }
 
 
-    static private final int BULK_INSERT_RECORDS_TO_INSERT = 10;
+    static final int BULK_INSERT_RECORDS_TO_INSERT = 10;
     static ContentValues[] createBulkInsertWeatherValues(long locationRowId) {
         long currentTestDate = TestUtilities.TEST_DATE;
         long millisecondsInADay = 1000*60*60*24;
@@ -512,4 +538,293 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // Inserting the same rows as testBulkInsert, but column by column through the provider's
+    // call() method.
+    public void testBulkInsertBatch() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        WeatherBatch batch = new WeatherBatch(2);
+        for (ContentValues values : bulkInsertContentValues) {
+            batch.add(values.getAsLong(WeatherEntry.COLUMN_LOC_KEY),
+                    values.getAsLong(WeatherEntry.COLUMN_DATE),
+                    values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    values.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                    values.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                    values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                    values.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+        }
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, batch.size());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_BULK_INSERT, null, batch.toBundle());
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertNotNull(result);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherEntry.KEY_ROW_COUNT));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testBulkInsertBatch.  Error validating WeatherEntry " + i,
+                    cursor, bulkInsertContentValues[i]);
+        }
+        cursor.close();
+    }
+
+    // Replacing the forecast should insert the new rows and delete the ones dated before the
+    // prune date, in one go.
+    public void testReplaceForecast() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        // An old forecast, starting one day before the new one
+        ContentValues oldValues = TestUtilities.createWeatherValues(locationRowId);
+        oldValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE - 1000*60*60*24);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, oldValues);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        WeatherBatch batch = WeatherBatch.fromContentValues(bulkInsertContentValues);
+        assertNotNull(batch);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        Bundle extras = batch.toBundle();
+        extras.putLong(WeatherEntry.KEY_PRUNE_BEFORE, TestUtilities.TEST_DATE);
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_REPLACE_FORECAST, null, extras);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertNotNull(result);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherEntry.KEY_ROW_COUNT));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: the stale forecast wasn't pruned",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testReplaceForecast.  Error validating WeatherEntry " + i,
+                    cursor, bulkInsertContentValues[i]);
+        }
+        cursor.close();
+    }
+
+    // A partial batch of a forecast stored in several writes its rows but prunes nothing: only
+    // the last batch does, even an empty one.
+    public void testReplaceForecastPartialBatch() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues oldValues = TestUtilities.createWeatherValues(locationRowId);
+        oldValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE - 1000*60*60*24);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, oldValues);
+
+        WeatherBatch batch = WeatherBatch.fromContentValues(
+                createBulkInsertWeatherValues(locationRowId));
+        Bundle extras = batch.toBundle();
+        extras.putBoolean(WeatherEntry.KEY_PARTIAL, true);
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_REPLACE_FORECAST, null, extras);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherEntry.KEY_ROW_COUNT));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: A partial batch pruned the stored forecast",
+                BULK_INSERT_RECORDS_TO_INSERT + 1, cursor.getCount());
+        cursor.close();
+
+        extras = new WeatherBatch().toBundle();
+        extras.putLong(WeatherEntry.KEY_PRUNE_BEFORE, TestUtilities.TEST_DATE);
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_REPLACE_FORECAST, null, extras);
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: The last batch didn't prune the stale forecast",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    // The days of several locations in one cursor, only those of the requested locations and in
+    // the window, ordered by location then date.
+    public void testWeatherLocationsQuery() {
+        String[] locations = {TestUtilities.TEST_LOCATION, "55555", "11111"};
+        ContentValues[][] locationValues = new ContentValues[locations.length][];
+        for (int i = 0; i < locations.length; i++) {
+            ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+            testValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locations[i]);
+            long locationRowId = ContentUris.parseId(
+                    mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+            locationValues[i] = createBulkInsertWeatherValues(locationRowId);
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, locationValues[i]);
+        }
+
+        int firstDay = 2;
+        int lastDay = 6;
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocations(new String[]{locations[0], locations[1]},
+                        locationValues[0][firstDay].getAsLong(WeatherEntry.COLUMN_DATE),
+                        locationValues[0][lastDay].getAsLong(WeatherEntry.COLUMN_DATE)),
+                null, null, null, null);
+        assertEquals("Error: the days of the locations in the window weren't all returned",
+                2 * (lastDay - firstDay + 1), cursor.getCount());
+
+        // "55555" sorts before "99705"
+        int[] expectedLocations = {1, 0};
+        cursor.moveToFirst();
+        for (int location : expectedLocations) {
+            for (int i = firstDay; i <= lastDay; i++, cursor.moveToNext()) {
+                assertEquals(locations[location], cursor.getString(
+                        cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+                TestUtilities.validateCurrentRecord("testWeatherLocationsQuery.  Error validating "
+                        + locations[location] + " " + i, cursor, locationValues[location][i]);
+            }
+        }
+        cursor.close();
+    }
+
+    // A batch of operations should be applied in one transaction: either all of them are, and
+    // the observers get notified after the commit, or none of them is.
+    public void testApplyBatch() throws RemoteException, OperationApplicationException {
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(0);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues values : bulkInsertContentValues) {
+            // Every weather row refers to the location inserted by the first operation
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // This batch fails on its last operation, so its first one must be rolled back
+        operations.clear();
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI).build());
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withValue(LocationEntry.COLUMN_CITY_NAME, "South Pole")
+                .withExpectedCount(2)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: the batch should have failed on its expected count");
+        } catch (OperationApplicationException e) {
+            // Expected
+        }
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: the failed batch wasn't rolled back",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    // Replacing a forecast should only write, and only notify, the days that changed, and leave
+    // the observers of other locations alone.
+    public void testReplaceForecastNotifiesChangedDates() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        String otherLocation = "55555";
+        testValues.put(LocationEntry.COLUMN_LOCATION_SETTING, otherLocation);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        WeatherBatch batch = WeatherBatch.fromContentValues(bulkInsertContentValues);
+        assertNotNull(batch);
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_REPLACE_FORECAST, null, batch.toBundle());
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherEntry.KEY_ROW_COUNT));
+
+        // Same forecast, except for one day
+        int changedDay = 3;
+        long changedDate = bulkInsertContentValues[changedDay].getAsLong(WeatherEntry.COLUMN_DATE);
+        long unchangedDate = bulkInsertContentValues[0].getAsLong(WeatherEntry.COLUMN_DATE);
+        bulkInsertContentValues[changedDay].put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        batch = WeatherBatch.fromContentValues(bulkInsertContentValues);
+
+        TestUtilities.TestContentObserver changedObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, changedDate),
+                true, changedObserver);
+        TestUtilities.TestContentObserver unchangedObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, unchangedDate),
+                true, unchangedObserver);
+        TestUtilities.TestContentObserver otherLocationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(otherLocation), true, otherLocationObserver);
+
+        result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_REPLACE_FORECAST, null, batch.toBundle());
+
+        changedObserver.waitForNotificationOrFail();
+        unchangedObserver.waitForNoNotificationOrFail(500);
+        otherLocationObserver.waitForNoNotificationOrFail(0);
+        mContext.getContentResolver().unregisterContentObserver(changedObserver);
+        mContext.getContentResolver().unregisterContentObserver(unchangedObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+
+        assertEquals(1, result.getInt(WeatherEntry.KEY_ROW_COUNT));
+        long[] changedDates = result.getLongArray(WeatherEntry.KEY_CHANGED_DATES);
+        assertEquals(1, changedDates.length);
+        assertEquals(WeatherContract.normalizeDate(changedDate), changedDates[0]);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, changedDate),
+                null, null, null, null);
+        TestUtilities.validateCursor("testReplaceForecastNotifiesChangedDates.  Error validating the changed day",
+                cursor, bulkInsertContentValues[changedDay]);
+        cursor.close();
+    }
 }
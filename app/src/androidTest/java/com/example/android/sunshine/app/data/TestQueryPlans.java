@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the queries the provider and the sync adapter make, and fails as
+    soon as one of them scans a whole table.  With years of history and many locations, a scan
+    is what makes a list load slow, long before any test would time out.
+
+    The unfiltered queries on the weather and location URIs are left out: they read every row
+    anyway.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    // weather/<location>, the detail widget and the wearable
+    public void testWeatherByLocationSetting() {
+        assertNoScan(WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                WeatherProvider.sLocationSettingSelection, null, null, SORT_BY_DATE, null),
+                TestUtilities.TEST_LOCATION);
+    }
+
+    // weather/<location>?date=<start date>, the forecast list
+    public void testWeatherByLocationSettingWithStartDate() {
+        assertNoScan(WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                WeatherProvider.sLocationSettingWithStartDateSelection, null, null, SORT_BY_DATE,
+                null),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    // weather/<location>/<date>, the detail view, the today widget, Muzei and the notification
+    public void testWeatherByLocationSettingAndDate() {
+        assertNoScan(WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                WeatherProvider.sLocationSettingAndDaySelection, null, null, null, null),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    // weather_locations?location=<location>&location=<location>&date=<start>&end_date=<end>,
+    // a dashboard of several locations
+    public void testWeatherByLocationSettings() {
+        assertNoScan(WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                WeatherProvider.buildLocationSettingsWithDatesSelection(2), null, null,
+                WeatherProvider.sLocationSettingAndDateSortOrder, null),
+                TestUtilities.TEST_LOCATION, "London, UK", Long.toString(TestUtilities.TEST_DATE),
+                Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    // The stale rows pruned when a forecast is replaced
+    public void testPruneByDate() {
+        assertNoScan(WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING, WeatherEntry.COLUMN_DATE},
+                WeatherProvider.sPruneSelection, null, null, null, null),
+                Long.toString(TestUtilities.TEST_DATE));
+        assertNoScan("DELETE FROM " + WeatherStorage.TABLE_WEATHER_DATA + " WHERE " +
+                WeatherEntry.COLUMN_DATE + " < ?",
+                Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    // Every description of a forecast being stored
+    public void testDescriptionId() {
+        assertNoScan("SELECT " + WeatherEntry._ID + " FROM " + WeatherStorage.TABLE_DESCRIPTION +
+                " WHERE " + WeatherEntry.COLUMN_SHORT_DESC + " = ?", "Clear");
+    }
+
+    // The stored forecast a new one is compared with
+    public void testWeatherByLocationId() {
+        assertNoScan("SELECT * FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherProvider.sLocationIdSelection, "1");
+    }
+
+    // Each arm of the aggregate queries, for all locations and for one.  The arms on the
+    // partitions of the history are left out: only the partitions in the range are read.
+    public void testAggregateRange() {
+        String[] tables = {WeatherStorage.TABLE_WEATHER_DATA, WeatherHistory.TABLE_WEEKS};
+        for (String table : tables) {
+            assertNoScan("SELECT * FROM " + table + " WHERE " + WeatherEntry.COLUMN_DATE +
+                    " >= ? AND " + WeatherEntry.COLUMN_DATE + " <= ?",
+                    Long.toString(TestUtilities.TEST_DATE), Long.toString(TestUtilities.TEST_DATE));
+            assertNoScan("SELECT * FROM " + table + " WHERE " + WeatherEntry.COLUMN_LOC_KEY +
+                    " = (SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                    " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND " +
+                    WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " <= ?",
+                    TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE),
+                    Long.toString(TestUtilities.TEST_DATE));
+        }
+    }
+
+    // The sync adapter looking up a location, and the provider its location setting
+    public void testLocation() {
+        assertNoScan("SELECT * FROM " + LocationEntry.TABLE_NAME + " WHERE " +
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", TestUtilities.TEST_LOCATION);
+        assertNoScan("SELECT * FROM " + LocationEntry.TABLE_NAME + " WHERE " +
+                LocationEntry._ID + " = ?", "1");
+    }
+
+    private void assertNoScan(String sql, String... selectionArgs) {
+        Cursor plan = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailIndex = plan.getColumnIndexOrThrow("detail");
+            assertTrue("Error: No query plan for " + sql, plan.moveToFirst());
+            do {
+                String detail = plan.getString(detailIndex);
+                Log.d(LOG_TAG, sql + ": " + detail);
+                // "SCAN TABLE weather", or "SCAN weather" on recent versions of SQLite
+                assertFalse("Error: " + detail + " in the plan of " + sql,
+                        detail.startsWith("SCAN "));
+            } while (plan.moveToNext());
+        } finally {
+            plan.close();
+        }
+    }
+}
@@ -34,8 +34,15 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_LOCATIONS_DIR = WeatherContract.WeatherEntry.buildWeatherLocations(new String[]{LOCATION_QUERY, "94043"}, TEST_DATE, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/history"
+    private static final Uri TEST_HISTORY_DIR = WeatherContract.HistoryEntry.CONTENT_URI;
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = WeatherContract.HistoryEntry.buildHistoryLocation(LOCATION_QUERY);
+    // content://com.example.android.sunshine.app/aggregate"
+    private static final Uri TEST_AGGREGATE_DIR = WeatherContract.AggregateEntry.buildAggregateUri(TEST_DATE, TEST_DATE);
+    private static final Uri TEST_AGGREGATE_WITH_LOCATION = WeatherContract.AggregateEntry.buildAggregateLocation(LOCATION_QUERY, TEST_DATE, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +58,17 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER LOCATIONS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_LOCATIONS_DIR), WeatherProvider.WEATHER_LOCATIONS);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The HISTORY URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_DIR), WeatherProvider.HISTORY);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR), WeatherProvider.HISTORY_WITH_LOCATION);
+        assertEquals("Error: The AGGREGATE URI was matched incorrectly.",
+                testMatcher.match(TEST_AGGREGATE_DIR), WeatherProvider.AGGREGATE);
+        assertEquals("Error: The AGGREGATE WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_AGGREGATE_WITH_LOCATION), WeatherProvider.AGGREGATE_WITH_LOCATION);
     }
 }
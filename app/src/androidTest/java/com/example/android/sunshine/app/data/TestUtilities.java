@@ -158,6 +158,18 @@ public class TestUtilities extends AndroidTestCase {
             }.run();
             mHT.quit();
         }
+
+        // There is no telling when a notification that should not come has not come, so this
+        // only waits for a while.
+        public void waitForNoNotificationOrFail(long waitMillis) {
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mHT.quit();
+            assertFalse("Error: unexpected change notification", mContentChanged);
+        }
     }
 
     static TestContentObserver getTestContentObserver() {
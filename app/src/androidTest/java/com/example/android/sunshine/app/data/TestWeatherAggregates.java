@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/*
+    Checks the aggregates SQLite computes against the ones computed in Java from every day read
+    through a cursor, the way it had to be done before, and times both.
+ */
+public class TestWeatherAggregates extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherAggregates.class.getSimpleName();
+
+    private static final String[] LOCATIONS = {TestUtilities.TEST_LOCATION, "London, UK"};
+
+    private static final int PAST_DAYS = 80;
+    private static final int FORECAST_DAYS = 14;
+
+    private static final int WARM_UP_QUERIES = 10;
+    private static final int TIMED_QUERIES = 100;
+
+    private static final String[] AGGREGATE_COLUMNS = {
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            AggregateEntry.COLUMN_DAYS,
+            AggregateEntry.COLUMN_MIN_TEMP,
+            AggregateEntry.COLUMN_MAX_TEMP,
+            AggregateEntry.COLUMN_MEAN_TEMP,
+            AggregateEntry.COLUMN_WET_DAYS,
+            AggregateEntry.COLUMN_MAX_WIND,
+            AggregateEntry.COLUMN_WINDIEST_DATE
+    };
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_SETTING = 0;
+    private static final int INDEX_DAYS = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MEAN_TEMP = 4;
+    private static final int INDEX_WET_DAYS = 5;
+    private static final int INDEX_MAX_WIND = 6;
+    private static final int INDEX_WINDIEST_DATE = 7;
+
+    // What the cursor loop reads of a day, from the history and from the forecast
+    private static final String[] DAY_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_WIND_SPEED
+    };
+
+    private final Time mTime = new Time();
+    private long[] mLocationIds;
+    private int mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        mLocationIds = new long[LOCATIONS.length];
+        for (int i = 0; i < LOCATIONS.length; i++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATIONS[i]);
+            mLocationIds[i] = ContentUris.parseId(
+                    mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+        }
+        mToday = WeatherHistory.julianDay(mTime, System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testAggregatesMatchCursorLoop() {
+        storeDays(mToday - PAST_DAYS, PAST_DAYS + FORECAST_DAYS);
+
+        long[][] ranges = {
+                {Long.MIN_VALUE, Long.MAX_VALUE},
+                // The history alone, the forecast alone, and both
+                {date(mToday - 30), date(mToday - 1)},
+                {date(mToday), date(mToday + 5)},
+                {date(mToday - 10), date(mToday + 5)},
+                {date(mToday - 3), date(mToday - 3)}
+        };
+        for (long[] range : ranges) {
+            String error = "Error: from " + range[0] + " to " + range[1];
+            for (String location : LOCATIONS) {
+                Cursor cursor = mContext.getContentResolver().query(
+                        AggregateEntry.buildAggregateLocation(location, range[0], range[1]),
+                        AGGREGATE_COLUMNS, null, null, null);
+                try {
+                    assertEquals(error, 1, cursor.getCount());
+                    assertTrue(cursor.moveToFirst());
+                    assertEquals(error, location, cursor.getString(INDEX_LOCATION_SETTING));
+                    assertAggregate(error + ", " + location,
+                            aggregateFromCursors(location, range[0], range[1]), cursor);
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            // All locations at once
+            Cursor cursor = mContext.getContentResolver().query(
+                    AggregateEntry.buildAggregateUri(range[0], range[1]), AGGREGATE_COLUMNS,
+                    null, null, LocationEntry.COLUMN_LOCATION_SETTING + " ASC");
+            try {
+                assertEquals(error, LOCATIONS.length, cursor.getCount());
+                while (cursor.moveToNext()) {
+                    String location = cursor.getString(INDEX_LOCATION_SETTING);
+                    assertAggregate(error + ", " + location,
+                            aggregateFromCursors(location, range[0], range[1]), cursor);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                AggregateEntry.buildAggregateUri(date(mToday + FORECAST_DAYS),
+                        date(mToday + FORECAST_DAYS + 7)), AGGREGATE_COLUMNS, null, null, null);
+        assertEquals("Error: aggregates of a range with no day", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testWeeksCountAsTheirDays() {
+        // A partition of days, all older than the retention, summed up in weeks
+        int firstDay = mToday - WeatherHistory.RETENTION_DAYS - 2 * WeatherHistory.PARTITION_DAYS;
+        firstDay -= firstDay % WeatherHistory.PARTITION_DAYS;
+        WeatherBatch days = createDays(0, firstDay, WeatherHistory.PARTITION_DAYS);
+        storeDays(firstDay, WeatherHistory.PARTITION_DAYS);
+
+        Cursor history = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocation(LOCATIONS[0]),
+                new String[]{HistoryEntry.COLUMN_DAYS}, null, null, null);
+        assertTrue(history.moveToFirst());
+        assertEquals("Error: the days weren't summed up in weeks", 7, history.getInt(0));
+        history.close();
+
+        Aggregate expected = new Aggregate();
+        for (int row = 0; row < days.size(); row++) {
+            expected.add(days.getDate(row), days.getWeatherId(row), days.getMinTemp(row),
+                    days.getMaxTemp(row), days.getWindSpeed(row));
+        }
+        Cursor cursor = mContext.getContentResolver().query(
+                AggregateEntry.buildAggregateLocation(LOCATIONS[0], date(firstDay),
+                        date(firstDay + WeatherHistory.PARTITION_DAYS - 1)),
+                AGGREGATE_COLUMNS, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(expected.mDays, cursor.getInt(INDEX_DAYS));
+            assertEquals(expected.mMin, cursor.getDouble(INDEX_MIN_TEMP));
+            assertEquals(expected.mMax, cursor.getDouble(INDEX_MAX_TEMP));
+            // The mean of a week is stored to the hundredth
+            assertEquals(expected.getMean(), cursor.getDouble(INDEX_MEAN_TEMP), 0.01);
+            assertEquals(expected.mWetDays, cursor.getInt(INDEX_WET_DAYS));
+            assertEquals(expected.mMaxWind, cursor.getDouble(INDEX_MAX_WIND));
+            assertEquals(expected.mWindiestDate, cursor.getLong(INDEX_WINDIEST_DATE));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        The aggregates of every location over their whole history and forecast, from the
+        aggregate URI against reading every day of every location through the history and
+        forecast URIs.
+     */
+    public void testAggregateBenchmark() {
+        storeDays(mToday - PAST_DAYS, PAST_DAYS + FORECAST_DAYS);
+        Uri uri = AggregateEntry.buildAggregateUri(date(mToday - PAST_DAYS),
+                date(mToday + FORECAST_DAYS));
+
+        long[] aggregateNanos = new long[TIMED_QUERIES];
+        long[] loopNanos = new long[TIMED_QUERIES];
+        for (int i = -WARM_UP_QUERIES; i < TIMED_QUERIES; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(uri, AGGREGATE_COLUMNS, null,
+                    null, null);
+            double sum = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    sum += cursor.getDouble(INDEX_MEAN_TEMP);
+                }
+            } finally {
+                cursor.close();
+            }
+            long aggregated = System.nanoTime();
+            double loopSum = 0;
+            for (String location : LOCATIONS) {
+                loopSum += aggregateFromCursors(location, date(mToday - PAST_DAYS),
+                        date(mToday + FORECAST_DAYS)).getMean();
+            }
+            long end = System.nanoTime();
+
+            assertEquals(loopSum, sum, 1e-9);
+            if (i >= 0) {
+                aggregateNanos[i] = aggregated - start;
+                loopNanos[i] = end - aggregated;
+            }
+        }
+
+        long aggregateMedian = median(aggregateNanos);
+        long loopMedian = median(loopNanos);
+        Log.i(LOG_TAG, "Median time to aggregate " + LOCATIONS.length + " locations of "
+                + (PAST_DAYS + FORECAST_DAYS) + " days: aggregate URI " + aggregateMedian
+                + " ns, cursor loop " + loopMedian + " ns");
+        assertTrue("Error: the aggregate URI took " + aggregateMedian
+                        + " ns, the cursor loop " + loopMedian + " ns",
+                aggregateMedian < loopMedian);
+    }
+
+    private long date(int julianDay) {
+        return mTime.setJulianDay(julianDay);
+    }
+
+    /*
+        Varied days, different for every location: temperatures and winds in quarters, one day
+        in three wet.
+     */
+    private WeatherBatch createDays(int location, int firstDay, int count) {
+        WeatherBatch batch = new WeatherBatch(count);
+        for (int i = 0; i < count; i++) {
+            int n = 31 * location + i;
+            boolean wet = n % 3 == 0;
+            double min = n * 7 % 23 - 5.25;
+            batch.add(mLocationIds[location], date(firstDay + i), wet ? 500 : 800,
+                    wet ? "Rain" : "Clear", min, min + 4.5 + n % 9, 60, 1010, n * 13 % 17 + 0.75,
+                    180);
+        }
+        return batch;
+    }
+
+    // Stores the days of every location, then moves those before today to the history
+    private void storeDays(int firstDay, int count) {
+        for (int location = 0; location < LOCATIONS.length; location++) {
+            mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                    WeatherEntry.METHOD_BULK_INSERT, null,
+                    createDays(location, firstDay, count).toBundle());
+        }
+        Bundle noForecast = new WeatherBatch().toBundle();
+        noForecast.putLong(WeatherEntry.KEY_PRUNE_BEFORE, date(mToday));
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_REPLACE_FORECAST, null, noForecast);
+    }
+
+    // The aggregates computed the way they had to be before: reading every day
+    private Aggregate aggregateFromCursors(String location, long startDate, long endDate) {
+        long start = startDate == Long.MIN_VALUE ? 0 : startDate;
+        Uri[] uris = {
+                HistoryEntry.buildHistoryLocationWithStartDate(location, start),
+                WeatherEntry.buildWeatherLocationWithStartDate(location, start)
+        };
+        Aggregate aggregate = new Aggregate();
+        for (Uri uri : uris) {
+            Cursor cursor = mContext.getContentResolver().query(uri, DAY_COLUMNS, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            try {
+                while (cursor.moveToNext()) {
+                    if (cursor.getLong(0) <= endDate) {
+                        aggregate.add(cursor.getLong(0), cursor.getInt(1), cursor.getDouble(2),
+                                cursor.getDouble(3), cursor.getDouble(4));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return aggregate;
+    }
+
+    private static void assertAggregate(String error, Aggregate expected, Cursor actual) {
+        assertEquals(error, expected.mDays, actual.getInt(INDEX_DAYS));
+        assertEquals(error, expected.mMin, actual.getDouble(INDEX_MIN_TEMP));
+        assertEquals(error, expected.mMax, actual.getDouble(INDEX_MAX_TEMP));
+        assertEquals(error, expected.getMean(), actual.getDouble(INDEX_MEAN_TEMP), 1e-9);
+        assertEquals(error, expected.mWetDays, actual.getInt(INDEX_WET_DAYS));
+        assertEquals(error, expected.mMaxWind, actual.getDouble(INDEX_MAX_WIND));
+        assertEquals(error, expected.mWindiestDate, actual.getLong(INDEX_WINDIEST_DATE));
+    }
+
+    private static long median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    // Days added in the order of their dates
+    private static class Aggregate {
+        int mDays;
+        double mMin = Double.MAX_VALUE;
+        double mMax = -Double.MAX_VALUE;
+        double mMeanSum;
+        int mWetDays;
+        double mMaxWind = -Double.MAX_VALUE;
+        long mWindiestDate;
+
+        void add(long date, int weatherId, double min, double max, double wind) {
+            mDays++;
+            mMin = Math.min(mMin, min);
+            mMax = Math.max(mMax, max);
+            mMeanSum += (min + max) / 2;
+            if (weatherId < AggregateEntry.FIRST_DRY_WEATHER_ID) {
+                mWetDays++;
+            }
+            // The latest of the windiest days
+            if (wind >= mMaxWind) {
+                mMaxWind = wind;
+                mWindiestDate = date;
+            }
+        }
+
+        double getMean() {
+            return mMeanSum / mDays;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Moves past days of the forecast to the history, and checks how the history sums them up in
+    weeks and keeps within its budget.
+ */
+public class TestWeatherHistory extends AndroidTestCase {
+
+    private static final String[] HISTORY_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            HistoryEntry.COLUMN_DAYS,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_DAYS = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+    private static final int INDEX_MAX_TEMP = 5;
+    private static final int INDEX_HUMIDITY = 6;
+    private static final int INDEX_PRESSURE = 7;
+    private static final int INDEX_WIND_SPEED = 8;
+    private static final int INDEX_DEGREES = 9;
+
+    private final Time mTime = new Time();
+    private long mLocationId;
+    private int mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationId = ContentUris.parseId(locationUri);
+        mToday = WeatherHistory.julianDay(mTime, System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testReplaceForecastMovesPastDaysToHistory() {
+        insertDays(mToday - 10, 10);
+
+        Bundle forecast = createDays(mToday, 3).toBundle();
+        forecast.putLong(WeatherEntry.KEY_PRUNE_BEFORE, date(mToday));
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_REPLACE_FORECAST, null, forecast);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), null, null, null,
+                null);
+        assertEquals("Error: the past days are still in the forecast", 3, cursor.getCount());
+        cursor.close();
+
+        cursor = queryHistory(HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION));
+        try {
+            assertEquals("Error: the past days aren't in the history", 10, cursor.getCount());
+            for (int day = 0; cursor.moveToNext(); day++) {
+                assertDay("Error: day " + day, mToday - 10 + day, day, cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        cursor = queryHistory(HistoryEntry.buildHistoryLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, date(mToday - 3)));
+        try {
+            assertEquals(3, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertDay("Error: the first day from the start date", mToday - 3, 7, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testExpiredDaysSummedUpInWeeks() {
+        // Four weeks, all older than the retention, and a few recent days
+        int firstDay = mToday - WeatherHistory.RETENTION_DAYS - 2 * WeatherHistory.PARTITION_DAYS;
+        firstDay -= firstDay % WeatherHistory.PARTITION_DAYS;
+        insertDays(firstDay, WeatherHistory.PARTITION_DAYS);
+        insertDays(mToday - 5, 5);
+
+        Bundle forecast = createDays(mToday, 3).toBundle();
+        forecast.putLong(WeatherEntry.KEY_PRUNE_BEFORE, date(mToday));
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_REPLACE_FORECAST, null, forecast);
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        try {
+            for (int partition : WeatherHistory.queryPartitions(dbHelper.getReadableDatabase())) {
+                assertTrue("Error: an expired partition is still there", partition > firstDay);
+            }
+        } finally {
+            dbHelper.close();
+        }
+
+        Cursor cursor = queryHistory(HistoryEntry.buildHistoryLocation(
+                TestUtilities.TEST_LOCATION));
+        try {
+            assertEquals("Error: expected 4 weeks and 5 days", 4 + 5, cursor.getCount());
+            for (int week = 0; week < 4; week++) {
+                assertTrue(cursor.moveToNext());
+                String error = "Error: week " + week;
+                int weekFirstDay = 7 * week;
+                assertEquals(error, date(firstDay + weekFirstDay), cursor.getLong(INDEX_DATE));
+                assertEquals(error, 7, cursor.getInt(INDEX_DAYS));
+                // Four days of clear sky, three of rain
+                assertEquals(error, 800, cursor.getInt(INDEX_WEATHER_ID));
+                assertEquals(error, "Clear", cursor.getString(INDEX_SHORT_DESC));
+                assertEquals(error, (double) weekFirstDay, cursor.getDouble(INDEX_MIN_TEMP));
+                assertEquals(error, 20.0 + weekFirstDay + 6, cursor.getDouble(INDEX_MAX_TEMP));
+                assertEquals(error, 50.0 + weekFirstDay + 3, cursor.getDouble(INDEX_HUMIDITY));
+                assertEquals(error, 1000.0 + weekFirstDay + 3, cursor.getDouble(INDEX_PRESSURE));
+                assertEquals(error, 3.0, cursor.getDouble(INDEX_WIND_SPEED));
+                // The direction of the windiest day, the last one
+                assertEquals(error, 10.0 * (weekFirstDay + 6), cursor.getDouble(INDEX_DEGREES));
+            }
+            for (int day = 0; cursor.moveToNext(); day++) {
+                assertEquals(1, cursor.getInt(INDEX_DAYS));
+                assertEquals(date(mToday - 5 + day), cursor.getLong(INDEX_DATE));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testWeekDownsampledThenArchivedAgain() {
+        // An expired week, archived three days first, then the four others
+        int firstDay = mToday - WeatherHistory.RETENTION_DAYS - 2 * WeatherHistory.PARTITION_DAYS;
+        firstDay -= firstDay % WeatherHistory.PARTITION_DAYS;
+        insertDays(firstDay, 3);
+        pruneForecast();
+        insertDays(firstDay + 3, 4);
+        pruneForecast();
+
+        Cursor cursor = queryHistory(HistoryEntry.buildHistoryLocation(
+                TestUtilities.TEST_LOCATION));
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(date(firstDay), cursor.getLong(INDEX_DATE));
+            assertEquals("Error: the days archived again replaced the week",
+                    7, cursor.getInt(INDEX_DAYS));
+            // Four days of clear sky, three of rain
+            assertEquals(800, cursor.getInt(INDEX_WEATHER_ID));
+            assertEquals(0.0, cursor.getDouble(INDEX_MIN_TEMP));
+            assertEquals(23.0, cursor.getDouble(INDEX_MAX_TEMP));
+            // (50 + 51 + 52 + 50 + 51 + 52 + 53) / 7
+            assertEquals(51.0, cursor.getDouble(INDEX_HUMIDITY));
+            assertEquals(3.0, cursor.getDouble(INDEX_WIND_SPEED));
+            // The direction of the windiest day, the last one of the second run
+            assertEquals(30.0, cursor.getDouble(INDEX_DEGREES));
+            assertFalse("Error: the week was summed up twice", cursor.moveToNext());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testRowBudget() {
+        insertDays(mToday - 56, 56);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            assertEquals(56, WeatherHistory.archive(db, date(mToday)));
+
+            // Old days are summed up in weeks first, the newest ones stay.  However the days
+            // fall in partitions, a partition of days left is enough to get within the budget.
+            WeatherHistory.compact(db, date(mToday), WeatherHistory.RETENTION_DAYS, 50);
+            Cursor cursor = WeatherHistory.query(db, TestUtilities.TEST_LOCATION, 0,
+                    HISTORY_COLUMNS, null, null, null);
+            try {
+                assertTrue("Error: " + cursor.getCount() + " rows over a budget of 50",
+                        cursor.getCount() <= 50);
+                assertTrue(cursor.moveToFirst());
+                assertEquals("Error: the oldest days weren't summed up in weeks",
+                        7, cursor.getInt(INDEX_DAYS));
+                assertTrue(cursor.moveToLast());
+                assertEquals(1, cursor.getInt(INDEX_DAYS));
+                assertEquals(date(mToday - 1), cursor.getLong(INDEX_DATE));
+            } finally {
+                cursor.close();
+            }
+
+            // Then the oldest weeks go
+            WeatherHistory.compact(db, date(mToday), WeatherHistory.RETENTION_DAYS, 2);
+            cursor = WeatherHistory.query(db, TestUtilities.TEST_LOCATION, 0,
+                    HISTORY_COLUMNS, null, null, null);
+            try {
+                assertTrue("Error: " + cursor.getCount() + " rows over a budget of 2",
+                        cursor.getCount() <= 2);
+            } finally {
+                cursor.close();
+            }
+            assertEquals(0, WeatherHistory.queryPartitions(db).length);
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    public void testOldWeeksDeletedBeforeRecentDays() {
+        int firstDay = mToday - WeatherHistory.RETENTION_DAYS - 2 * WeatherHistory.PARTITION_DAYS;
+        firstDay -= firstDay % WeatherHistory.PARTITION_DAYS;
+        insertDays(firstDay, WeatherHistory.PARTITION_DAYS);
+        insertDays(mToday - 10, 10);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            WeatherHistory.archive(db, date(mToday));
+
+            // Four weeks and ten days over a budget of ten: the weeks go, the days stay as they are
+            WeatherHistory.compact(db, date(mToday), WeatherHistory.RETENTION_DAYS, 10);
+            Cursor cursor = WeatherHistory.query(db, TestUtilities.TEST_LOCATION, 0,
+                    HISTORY_COLUMNS, null, null, null);
+            try {
+                assertEquals(10, cursor.getCount());
+                for (int day = 0; cursor.moveToNext(); day++) {
+                    assertEquals("Error: a recent day was summed up in a week",
+                            1, cursor.getInt(INDEX_DAYS));
+                    assertEquals(date(mToday - 10 + day), cursor.getLong(INDEX_DATE));
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    public void testWeekAndDayOfSameDateHaveDistinctIds() {
+        int monday = mToday - 14;
+        monday -= monday % 7;
+        insertDays(monday, 3);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            // Summed up in a week to get within the budget
+            WeatherHistory.archive(db, date(monday + 3));
+            WeatherHistory.compact(db, date(mToday), WeatherHistory.RETENTION_DAYS, 1);
+
+            // Then the Monday is archived again, and not summed up yet
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+            insertDays(monday, 1);
+            WeatherHistory.archive(db, date(monday + 1));
+
+            Cursor cursor = WeatherHistory.query(db, TestUtilities.TEST_LOCATION, 0,
+                    new String[]{HistoryEntry._ID, WeatherEntry.COLUMN_DATE}, null, null, null);
+            try {
+                assertEquals(2, cursor.getCount());
+                assertTrue(cursor.moveToFirst());
+                long firstId = cursor.getLong(0);
+                assertEquals(date(monday), cursor.getLong(1));
+                assertTrue(cursor.moveToNext());
+                assertEquals(date(monday), cursor.getLong(1));
+                assertTrue("Error: a week and a day share their _id", firstId != cursor.getLong(0));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    public void testDeleteHistory() {
+        insertDays(mToday - 40, 40);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        try {
+            assertEquals(40, WeatherHistory.archive(dbHelper.getWritableDatabase(), date(mToday)));
+        } finally {
+            dbHelper.close();
+        }
+
+        int deleted = mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        assertEquals(40, deleted);
+
+        Cursor cursor = queryHistory(HistoryEntry.buildHistoryLocation(
+                TestUtilities.TEST_LOCATION));
+        assertEquals("Error: the history wasn't deleted", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    private long date(int julianDay) {
+        return mTime.setJulianDay(julianDay);
+    }
+
+    // Stores a forecast from today, which moves every day before it to the history
+    private void pruneForecast() {
+        Bundle forecast = createDays(mToday, 3).toBundle();
+        forecast.putLong(WeatherEntry.KEY_PRUNE_BEFORE, date(mToday));
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_REPLACE_FORECAST, null, forecast);
+    }
+
+    private Cursor queryHistory(Uri uri) {
+        return mContext.getContentResolver().query(uri, HISTORY_COLUMNS, null, null, null);
+    }
+
+    /*
+        Day n of a run has a min of n, a max of 20 + n, a humidity of 50 + n, a pressure of
+        1000 + n, and the wind of its day of the week, getting stronger and turning to 10 * n.
+        It's clear from Monday to Thursday, it rains the rest of the week.
+     */
+    private WeatherBatch createDays(int firstDay, int count) {
+        WeatherBatch batch = new WeatherBatch(count);
+        for (int i = 0; i < count; i++) {
+            int weekDay = (firstDay + i) % 7;
+            batch.add(mLocationId, date(firstDay + i),
+                    weekDay < 4 ? 800 : 500, weekDay < 4 ? "Clear" : "Rain",
+                    i, 20 + i, 50 + i, 1000 + i, weekDay, 10 * i);
+        }
+        return batch;
+    }
+
+    private void insertDays(int firstDay, int count) {
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_BULK_INSERT, null, createDays(firstDay, count).toBundle());
+    }
+
+    private void assertDay(String error, int julianDay, int dayOfRun, Cursor cursor) {
+        assertEquals(error, date(julianDay), cursor.getLong(INDEX_DATE));
+        assertEquals(error, 1, cursor.getInt(INDEX_DAYS));
+        assertEquals(error, julianDay % 7 < 4 ? 800 : 500, cursor.getInt(INDEX_WEATHER_ID));
+        assertEquals(error, julianDay % 7 < 4 ? "Clear" : "Rain",
+                cursor.getString(INDEX_SHORT_DESC));
+        assertEquals(error, (double) dayOfRun, cursor.getDouble(INDEX_MIN_TEMP));
+        assertEquals(error, 20.0 + dayOfRun, cursor.getDouble(INDEX_MAX_TEMP));
+        assertEquals(error, 50.0 + dayOfRun, cursor.getDouble(INDEX_HUMIDITY));
+        assertEquals(error, 1000.0 + dayOfRun, cursor.getDouble(INDEX_PRESSURE));
+        assertEquals(error, (double) (julianDay % 7), cursor.getDouble(INDEX_WIND_SPEED));
+        assertEquals(error, 10.0 * dayOfRun, cursor.getDouble(INDEX_DEGREES));
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal HTTP server standing in for OpenWeatherMap, so the whole sync pipeline can be run and
+ * stressed offline.  It serves either recorded payloads or generated forecasts of a configurable
+ * number of days, after a configurable latency, failing a configurable share of the requests.
+ *
+ * Point an {@link OwmWeatherSource} to {@link #getBaseUrl()} to use it.
+ */
+public class MockWeatherServer {
+
+    private static final String LOG_TAG = MockWeatherServer.class.getSimpleName();
+
+    private static final String QUERY_PARAM = "q";
+    private static final String CITY_ID_PARAM = "id";
+    private static final String HEADER_IF_NONE_MATCH = "if-none-match";
+
+    // City ids handed out in generated forecasts, and the location they were generated for
+    private static final Map<String, String> sCityIds =
+            Collections.synchronizedMap(new HashMap<String, String>());
+
+    private final Map<String, byte[]> mRecordedPayloads = new HashMap<String, byte[]>();
+    private final Random mRandom = new Random(42);
+
+    private volatile long mLatencyMillis = 0;
+    private volatile double mErrorRate = 0;
+    private volatile int mForecastDays = 14;
+    private volatile boolean mETagsEnabled = true;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+    private final AtomicInteger mErrorCount = new AtomicInteger();
+    private final AtomicLong mBytesServed = new AtomicLong();
+
+    private ServerSocket mServerSocket;
+    private ExecutorService mExecutor;
+
+    /**
+     * Serves this payload, as recorded from OpenWeatherMap, for the given location instead of a
+     * generated forecast.
+     */
+    public synchronized void setRecordedPayload(String locationSetting, byte[] payload) {
+        mRecordedPayloads.put(locationSetting, payload);
+    }
+
+    /**
+     * Delays every response by this much.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Share of the requests, between 0 and 1, answered with an internal server error.
+     */
+    public void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    /**
+     * Number of days in generated forecasts, which drives the size of the payloads.
+     */
+    public void setForecastDays(int forecastDays) {
+        mForecastDays = forecastDays;
+    }
+
+    /**
+     * Whether responses carry an ETag, and conditional requests get a 304 back.
+     */
+    public void setETagsEnabled(boolean eTagsEnabled) {
+        mETagsEnabled = eTagsEnabled;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    public int getErrorCount() {
+        return mErrorCount.get();
+    }
+
+    public long getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    /**
+     * Starts listening on a free port of the loopback interface.
+     */
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor = Executors.newCachedThreadPool();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @return the base URL to give to an {@link OwmWeatherSource}.
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (SocketException e) {
+                // The server socket was closed by shutdown()
+                return;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error accepting connection", e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String requestLine = reader.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            String ifNoneMatch = null;
+            String header;
+            while ((header = reader.readLine()) != null && header.length() > 0) {
+                int colon = header.indexOf(':');
+                if (colon > 0 && HEADER_IF_NONE_MATCH.equals(
+                        header.substring(0, colon).trim().toLowerCase(Locale.US))) {
+                    ifNoneMatch = header.substring(colon + 1).trim();
+                }
+            }
+            mRequestCount.incrementAndGet();
+
+            if (mLatencyMillis > 0) {
+                Thread.sleep(mLatencyMillis);
+            }
+
+            OutputStream out = socket.getOutputStream();
+            if (nextIsError()) {
+                mErrorCount.incrementAndGet();
+                writeResponse(out, "500 Internal Server Error", null,
+                        "{\"cod\":\"500\",\"message\":\"mock failure\"}".getBytes("UTF-8"));
+                return;
+            }
+
+            // Locations are asked for by name until their city id is known
+            String[] parts = requestLine.split(" ");
+            Uri requestUri = Uri.parse(parts.length > 1 ? parts[1] : "/");
+            String locationSetting = requestUri.getQueryParameter(QUERY_PARAM);
+            if (locationSetting == null) {
+                locationSetting = sCityIds.get(requestUri.getQueryParameter(CITY_ID_PARAM));
+            }
+            byte[] payload = getPayload(locationSetting);
+            String eTag = mETagsEnabled ? "\"" + Integer.toHexString(
+                    Arrays.hashCode(payload)) + "\"" : null;
+
+            if (eTag != null && eTag.equals(ifNoneMatch)) {
+                mNotModifiedCount.incrementAndGet();
+                writeResponse(out, "304 Not Modified", eTag, null);
+            } else {
+                writeResponse(out, "200 OK", eTag, payload);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error serving request", e);
+        } catch (InterruptedException e) {
+            // Shutting down
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private synchronized boolean nextIsError() {
+        return mRandom.nextDouble() < mErrorRate;
+    }
+
+    private synchronized byte[] getPayload(String locationSetting) throws IOException {
+        byte[] payload = mRecordedPayloads.get(locationSetting);
+        if (payload == null) {
+            payload = buildForecast(locationSetting, mForecastDays).getBytes("UTF-8");
+            mRecordedPayloads.put(locationSetting, payload);
+        }
+        return payload;
+    }
+
+    private void writeResponse(OutputStream out, String status, String eTag, byte[] body)
+            throws IOException {
+        StringBuilder headers = new StringBuilder();
+        headers.append("HTTP/1.1 ").append(status).append("\r\n");
+        headers.append("Connection: close\r\n");
+        headers.append("Content-Type: application/json; charset=utf-8\r\n");
+        if (eTag != null) {
+            headers.append("ETag: ").append(eTag).append("\r\n");
+        }
+        headers.append("Content-Length: ").append(body == null ? 0 : body.length).append("\r\n");
+        headers.append("\r\n");
+        byte[] headerBytes = headers.toString().getBytes("UTF-8");
+        out.write(headerBytes);
+        mBytesServed.addAndGet(headerBytes.length);
+        if (body != null) {
+            out.write(body);
+            mBytesServed.addAndGet(body.length);
+        }
+        out.flush();
+    }
+
+    /**
+     * Builds a forecast shaped like the OpenWeatherMap daily forecast response.
+     */
+    static String buildForecast(String locationSetting, int days) {
+        String cityId = Integer.toString(5375480 + (locationSetting == null
+                ? 0 : (locationSetting.hashCode() & 0xffff)));
+        sCityIds.put(cityId, locationSetting);
+
+        StringBuilder json = new StringBuilder(256 + days * 320);
+        json.append("{\"city\":{\"id\":").append(cityId).append(",\"name\":\"")
+                .append(locationSetting == null ? "Mock City" : locationSetting)
+                .append("\",\"coord\":{\"lon\":-122.0838,\"lat\":37.386},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        long dt = 1419033600L;
+        for (int i = 0; i < days; i++, dt += 86400) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(dt)
+                    .append(",\"temp\":{\"day\":15.5,\"min\":").append(10 + (i % 5))
+                    .append(".25,\"max\":").append(18 + (i % 7))
+                    .append(".75,\"night\":9.1,\"eve\":14.2,\"morn\":10.3},")
+                    .append("\"pressure\":1013.").append(i % 10)
+                    .append(",\"humidity\":").append(60 + (i % 30))
+                    .append(",\"weather\":[{\"id\":").append(i % 2 == 0 ? 800 : 500)
+                    .append(",\"main\":\"").append(i % 2 == 0 ? "Clear" : "Rain")
+                    .append("\",\"description\":\"mock\",\"icon\":\"01d\"}],")
+                    .append("\"speed\":").append(1 + (i % 9))
+                    .append(".5,\"deg\":").append((i * 37) % 360)
+                    .append(",\"clouds\":0}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+}
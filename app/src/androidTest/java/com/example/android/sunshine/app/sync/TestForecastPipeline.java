@@ -0,0 +1,168 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Stores forecasts through a ForecastPipeline the way the sync adapter does, days handed over
+    one by one as they are parsed.
+ */
+public class TestForecastPipeline extends AndroidTestCase {
+
+    private static final String LOCATION_SETTING = "99705";
+    private static final int FORECAST_DAYS = 3 * ForecastPipeline.BATCH_SIZE + 2;
+
+    private ExecutorService mExecutor;
+    private long mLocationId;
+    private int mToday;
+    private final Time mTime = new Time();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mExecutor = Executors.newSingleThreadExecutor();
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, LOCATION_SETTING);
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, values));
+
+        mTime.setToNow();
+        mToday = Time.getJulianDay(System.currentTimeMillis(), mTime.gmtoff);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdown();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    // Hands the days over to a new pipeline, the location set after the given number of days
+    private int storeForecast(int daysBeforeLocation, double maxTemp) throws Exception {
+        ForecastPipeline pipeline = new ForecastPipeline(mExecutor, mContext,
+                mTime.setJulianDay(mToday));
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            if (i == daysBeforeLocation) {
+                pipeline.setLocationId(mLocationId);
+            }
+            pipeline.add(mTime.setJulianDay(mToday + i), 800, "Clear", 10, maxTemp + i, 60,
+                    1010, 5, 180);
+        }
+        if (daysBeforeLocation >= FORECAST_DAYS) {
+            pipeline.setLocationId(mLocationId);
+        }
+        return pipeline.finish();
+    }
+
+    private Cursor queryForecast() {
+        return mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_SETTING),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE,
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    public void testPipelineStoresEveryDay() throws Exception {
+        assertEquals(FORECAST_DAYS, storeForecast(0, 20));
+
+        Cursor cursor = queryForecast();
+        assertEquals("Error: Not every day handed over was stored", FORECAST_DAYS,
+                cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(mTime.setJulianDay(mToday + i), cursor.getLong(0));
+            assertEquals(20.0 + i, cursor.getDouble(1));
+        }
+        cursor.close();
+
+        // The same forecast again: nothing changed, nothing written
+        assertEquals(0, storeForecast(0, 20));
+    }
+
+    // The city may come after the list: the days are held back until it does
+    public void testPipelineWaitsForLocation() throws Exception {
+        assertEquals(FORECAST_DAYS, storeForecast(ForecastPipeline.BATCH_SIZE + 3, 20));
+        assertEquals(FORECAST_DAYS, storeForecast(FORECAST_DAYS, 25));
+
+        Cursor cursor = queryForecast();
+        assertEquals(FORECAST_DAYS, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(25.0 + i, cursor.getDouble(1));
+        }
+        cursor.close();
+    }
+
+    // Days stored before the fetch failed stay, the rest never are
+    public void testCancelledPipeline() throws Exception {
+        ForecastPipeline pipeline = new ForecastPipeline(mExecutor, mContext,
+                mTime.setJulianDay(mToday));
+        pipeline.setLocationId(mLocationId);
+        for (int i = 0; i < ForecastPipeline.BATCH_SIZE - 1; i++) {
+            pipeline.add(mTime.setJulianDay(mToday + i), 800, "Clear", 10, 20, 60, 1010, 5, 180);
+        }
+        pipeline.cancel();
+
+        Cursor cursor = queryForecast();
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    // A producer failing with an unchecked exception, e.g. from the listener of the parser, still
+    // ends the pipeline: the single writer thread is free for the next one
+    public void testPipelineClosedAfterProducerThrows() throws Exception {
+        ForecastPipeline pipeline = new ForecastPipeline(mExecutor, mContext,
+                mTime.setJulianDay(mToday));
+        try {
+            pipeline.setLocationId(mLocationId);
+            for (int i = 0; i < FORECAST_DAYS; i++) {
+                if (i == ForecastPipeline.BATCH_SIZE + 2) {
+                    throw new IllegalStateException("Expected BEGIN_OBJECT but was STRING");
+                }
+                pipeline.add(mTime.setJulianDay(mToday + i), 800, "Clear", 10, 20, 60, 1010, 5,
+                        180);
+            }
+            fail("Error: The producer didn't throw");
+        } catch (IllegalStateException expected) {
+            // As the sync adapter does
+        } finally {
+            assertTrue("Error: Days were handed over, the stored forecast may be partly new",
+                    pipeline.close());
+        }
+
+        // Would wait forever behind the writer of the first pipeline if it were still running,
+        // and time out
+        mExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        }).get(5, TimeUnit.SECONDS);
+        assertEquals(FORECAST_DAYS, storeForecast(0, 25));
+
+        // A pipeline that finished has nothing left to close
+        ForecastPipeline finished = new ForecastPipeline(mExecutor, mContext,
+                mTime.setJulianDay(mToday));
+        finished.setLocationId(mLocationId);
+        finished.finish();
+        assertFalse(finished.close());
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.TodaySnapshot;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Runs the whole sync pipeline (fetch, parse, store, fan-out) offline, against a
+    MockWeatherServer or recorded payloads, and logs how long it takes.
+ */
+public class TestSyncPipeline extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncPipeline.class.getSimpleName();
+
+    private static final int STRESS_SYNCS = 20;
+
+    private MockWeatherServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        new ForecastValidatorStore(mContext).clear(Utility.getPreferredLocation(mContext));
+
+        mServer = new MockWeatherServer();
+        mServer.start();
+        SunshineSyncAdapter.setWeatherSource(new OwmWeatherSource(mServer.getBaseUrl()));
+        // Decided after every sync, but never requested from the sync framework
+        SyncScheduler.setInstance(new SyncScheduler(mContext,
+                new SyncScheduler.PeriodicSyncRequester() {
+                    @Override
+                    public void requestPeriodicSync(int syncInterval, int flexTime) {
+                    }
+                }));
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setWeatherSource(null);
+        SyncScheduler.setInstance(null);
+        mServer.shutdown();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long performSync() {
+        long start = System.nanoTime();
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                new SyncResult());
+        return System.nanoTime() - start;
+    }
+
+    private int countStoredDays() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(
+                        Utility.getPreferredLocation(mContext)),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testSyncStoresForecastAndRevalidates() {
+        mServer.setForecastDays(14);
+
+        long firstSync = performSync();
+        assertEquals("Error: The forecast served by the mock server was not stored",
+                14, countStoredDays());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+
+        long secondSync = performSync();
+        assertEquals("Error: The second sync was not answered with a 304",
+                1, mServer.getNotModifiedCount());
+        assertEquals(14, countStoredDays());
+
+        Log.i(LOG_TAG, "Full sync: " + firstSync / 1000 + "us, revalidated sync: "
+                + secondSync / 1000 + "us, " + mServer.getBytesServed() + " bytes served");
+    }
+
+    public void testSyncSnapshotsToday() {
+        mServer.setForecastDays(14);
+        performSync();
+
+        String locationSetting = Utility.getPreferredLocation(mContext);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        TodaySnapshot snapshot = TodaySnapshot.get(mContext);
+        assertNotNull("Error: The sync didn't snapshot today's weather", snapshot);
+        assertEquals(locationSetting, snapshot.getLocationSetting());
+        assertEquals(today, snapshot.getDate());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, today),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherContract.WeatherEntry.COLUMN_MIN_TEMP},
+                null, null, null);
+        assertTrue("Error: No forecast stored for today", cursor.moveToFirst());
+        assertEquals(cursor.getInt(0), snapshot.getWeatherId());
+        assertEquals(cursor.getDouble(1), snapshot.getHigh());
+        assertEquals(cursor.getDouble(2), snapshot.getLow());
+        assertEquals(Utility.formatTemperature(mContext, cursor.getDouble(1), true),
+                snapshot.getFormattedHigh(true));
+        assertEquals(Utility.formatTemperature(mContext, cursor.getDouble(2), false),
+                snapshot.getFormattedLow(false));
+        cursor.close();
+    }
+
+    public void testSyncRecordsStageMetrics() throws Exception {
+        mServer.setForecastDays(14);
+        long start = System.currentTimeMillis();
+        performSync();
+        // Answered with a 304
+        performSync();
+
+        // The stages of the preferred location, sync by sync
+        String locationSetting = Utility.getPreferredLocation(mContext);
+        List<Map<String, SyncMetrics.Record>> syncs =
+                new ArrayList<Map<String, SyncMetrics.Record>>();
+        long syncTime = -1;
+        for (SyncMetrics.Record record : SyncMetrics.get(mContext).getRecords()) {
+            if (record.getSyncTime() < start
+                    || !record.getLocationSetting().equals(locationSetting)) {
+                continue;
+            }
+            if (record.getSyncTime() != syncTime) {
+                syncTime = record.getSyncTime();
+                syncs.add(new HashMap<String, SyncMetrics.Record>());
+            }
+            syncs.get(syncs.size() - 1).put(record.getStage(), record);
+        }
+        assertEquals("Error: The stages of both syncs weren't recorded", 2, syncs.size());
+
+        Map<String, SyncMetrics.Record> fullSync = syncs.get(0);
+        String[] stages = {SyncMetrics.STAGE_CONNECT, SyncMetrics.STAGE_PARSE,
+                SyncMetrics.STAGE_LOCATION, SyncMetrics.STAGE_STORE, SyncMetrics.STAGE_SNAPSHOT,
+                SyncMetrics.STAGE_WIDGETS, SyncMetrics.STAGE_MUZEI,
+                SyncMetrics.STAGE_NOTIFICATION};
+        for (String stage : stages) {
+            assertTrue("Error: No " + stage + " stage recorded", fullSync.containsKey(stage));
+            assertEquals(SyncMetrics.OUTCOME_OK, fullSync.get(stage).getOutcome());
+            assertTrue(fullSync.get(stage).getDurationMicros() >= 0);
+            // Requested by nobody, as the periodic syncs are
+            assertEquals(SyncRequestCoordinator.REASON_SCHEDULED,
+                    fullSync.get(stage).getReasons());
+        }
+        SyncMetrics.Record parse = fullSync.get(SyncMetrics.STAGE_PARSE);
+        assertTrue("Error: No bytes recorded", parse.getBytes() > 0);
+        assertTrue(parse.getBytes() <= mServer.getBytesServed());
+        assertEquals(14, parse.getRows());
+        assertEquals(14, fullSync.get(SyncMetrics.STAGE_STORE).getRows());
+
+        Map<String, SyncMetrics.Record> revalidatedSync = syncs.get(1);
+        assertEquals(1, revalidatedSync.size());
+        assertEquals(SyncMetrics.OUTCOME_NOT_MODIFIED,
+                revalidatedSync.get(SyncMetrics.STAGE_CONNECT).getOutcome());
+
+        // Exported after every sync: a header and a line per stage
+        int lines = 0;
+        BufferedReader reader = new BufferedReader(
+                new FileReader(SyncMetrics.getFile(mContext)));
+        try {
+            while (reader.readLine() != null) {
+                lines++;
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(SyncMetrics.get(mContext).getRecords().size() + 1, lines);
+
+        for (SyncMetrics.Record record : fullSync.values()) {
+            Log.i(LOG_TAG, record.getStage() + ": " + record.getDurationMicros() + "us, "
+                    + record.getBytes() + " bytes, " + record.getRows() + " rows");
+        }
+    }
+
+    public void testSyncUnderLatencyAndErrors() {
+        mServer.setForecastDays(16);
+        mServer.setLatencyMillis(25);
+        mServer.setErrorRate(0.3);
+        mServer.setETagsEnabled(false);
+
+        long total = 0;
+        for (int i = 0; i < STRESS_SYNCS; i++) {
+            total += performSync();
+        }
+
+        assertEquals(STRESS_SYNCS, mServer.getRequestCount());
+        assertTrue("Error: No sync went through", mServer.getErrorCount() < STRESS_SYNCS);
+        assertEquals(16, countStoredDays());
+
+        Log.i(LOG_TAG, STRESS_SYNCS + " syncs, " + mServer.getErrorCount() + " failed, "
+                + total / STRESS_SYNCS / 1000 + "us per sync");
+    }
+
+    public void testLocationSyncThrows() {
+        SunshineSyncAdapter.setWeatherSource(new WeatherSource() {
+            @Override
+            public Response fetchForecast(String locationSetting, long cityId, String eTag,
+                    String lastModified, ForecastJsonParser.Listener listener)
+                    throws IOException, JSONException {
+                throw new IllegalStateException("Source broken");
+            }
+        });
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                syncResult);
+
+        assertEquals("Error: The failed location sync was not counted",
+                1, syncResult.stats.numIoExceptions);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN,
+                Utility.getLocationStatus(mContext));
+        assertEquals(0, countStoredDays());
+    }
+
+    public void testReplayWeatherSource() throws Exception {
+        File fixtureDir = new File(mContext.getCacheDir(), "forecast_fixtures");
+        assertTrue(fixtureDir.isDirectory() || fixtureDir.mkdirs());
+        File fixture = new File(fixtureDir, "default.json");
+        FileOutputStream out = new FileOutputStream(fixture);
+        try {
+            out.write(MockWeatherServer.buildForecast("Replay City", 7).getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        SunshineSyncAdapter.setWeatherSource(new ReplayWeatherSource(fixtureDir));
+        performSync();
+        assertEquals("Error: The replayed forecast was not stored", 7, countStoredDays());
+        assertEquals("Error: The replay source hit the network", 0, mServer.getRequestCount());
+
+        fixture.delete();
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.TodaySnapshot;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Checks which requests for a sync reach the sync framework, with the sync framework replaced
+    by a list of the requested extras.
+ */
+public class TestSyncRequestCoordinator extends AndroidTestCase {
+
+    private final List<Bundle> mRequests = new ArrayList<Bundle>();
+    private SyncRequestCoordinator mCoordinator;
+    private String mPreferredLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // No sync yet, so nothing stored is recent enough for a watch
+        mContext.getSharedPreferences(SyncRequestCoordinator.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        mPreferredLocation = Utility.getPreferredLocation(mContext);
+        mCoordinator = new SyncRequestCoordinator(mContext,
+                new SyncRequestCoordinator.SyncRequester() {
+                    @Override
+                    public void requestSync(Bundle extras) {
+                        mRequests.add(extras);
+                    }
+                });
+    }
+
+    public void testRequestsMergedIntoRequestedSync() {
+        assertEquals(SyncRequestCoordinator.DECISION_REQUESTED, mCoordinator.requestSync(
+                SyncRequestCoordinator.REASON_LOCATION_CHANGED, mPreferredLocation));
+        assertEquals(SyncRequestCoordinator.DECISION_MERGED, mCoordinator.requestSync(
+                SyncRequestCoordinator.REASON_FAVOURITES_CHANGED, null));
+        assertEquals(SyncRequestCoordinator.DECISION_MERGED, mCoordinator.requestSync(
+                SyncRequestCoordinator.REASON_WATCH_REQUEST, mPreferredLocation));
+        assertEquals("Error: Merged requests reached the sync framework", 1, mRequests.size());
+
+        // The sync runs for every request merged into it
+        assertEquals(SyncRequestCoordinator.REASON_LOCATION_CHANGED + "+"
+                        + SyncRequestCoordinator.REASON_FAVOURITES_CHANGED + "+"
+                        + SyncRequestCoordinator.REASON_WATCH_REQUEST,
+                mCoordinator.onSyncStarted(mRequests.get(0), Arrays.asList(mPreferredLocation)));
+        mCoordinator.onSyncFinished();
+    }
+
+    public void testRequestsDuringRunningSync() {
+        mCoordinator.onSyncStarted(new Bundle(), Arrays.asList(mPreferredLocation));
+
+        // The running sync sends the watch its data when done
+        assertEquals(SyncRequestCoordinator.DECISION_MERGED, mCoordinator.requestSync(
+                SyncRequestCoordinator.REASON_WATCH_REQUEST, mPreferredLocation));
+        assertEquals(0, mRequests.size());
+
+        // It may have read the favourites before they changed: one more sync, for all the
+        // changes made meanwhile
+        assertEquals(SyncRequestCoordinator.DECISION_REQUESTED, mCoordinator.requestSync(
+                SyncRequestCoordinator.REASON_FAVOURITES_CHANGED, null));
+        assertEquals(SyncRequestCoordinator.DECISION_MERGED, mCoordinator.requestSync(
+                SyncRequestCoordinator.REASON_FAVOURITES_CHANGED, null));
+        assertEquals(1, mRequests.size());
+        assertEquals("Error: The request merged into the running sync wasn't recorded",
+                SyncRequestCoordinator.REASON_SCHEDULED + "+"
+                        + SyncRequestCoordinator.REASON_WATCH_REQUEST,
+                mCoordinator.onSyncFinished());
+
+        assertEquals(SyncRequestCoordinator.REASON_FAVOURITES_CHANGED,
+                mCoordinator.onSyncStarted(mRequests.get(0), Arrays.asList(mPreferredLocation)));
+        mCoordinator.onSyncFinished();
+    }
+
+    public void testForecastFreshOnceSynced() {
+        // Not synced recently: the watch request goes to the network
+        assertFalse(mCoordinator.isForecastFresh());
+        assertEquals(SyncRequestCoordinator.DECISION_REQUESTED, mCoordinator.requestSync(
+                SyncRequestCoordinator.REASON_WATCH_REQUEST, mPreferredLocation));
+        mCoordinator.onSyncStarted(mRequests.get(0), Arrays.asList(mPreferredLocation));
+        TodaySnapshot.update(mContext, mPreferredLocation, System.currentTimeMillis(), 800,
+                "Clear", 20, 10);
+        mCoordinator.onSyncFinished();
+
+        // The forecast wasn't fetched, e.g. the server was down: what is stored is as old as it was
+        assertFalse("Error: A failed sync made the forecast fresh", mCoordinator.isForecastFresh());
+
+        mCoordinator.onSyncStarted(new Bundle(), Arrays.asList(mPreferredLocation));
+        mCoordinator.onForecastFetched();
+        mCoordinator.onSyncFinished();
+
+        assertTrue("Error: The forecast just fetched isn't fresh", mCoordinator.isForecastFresh());
+    }
+
+    public void testScheduledSyncServesPendingRequests() {
+        assertEquals(SyncRequestCoordinator.DECISION_REQUESTED, mCoordinator.requestSync(
+                SyncRequestCoordinator.REASON_LOCATION_CHANGED, mPreferredLocation));
+
+        // The sync requested may have been dropped: the one that starts first serves it
+        assertEquals(SyncRequestCoordinator.REASON_SCHEDULED + "+"
+                        + SyncRequestCoordinator.REASON_LOCATION_CHANGED,
+                mCoordinator.onSyncStarted(new Bundle(), Arrays.asList(mPreferredLocation)));
+        mCoordinator.onSyncFinished();
+
+        // Nothing is pending any longer, so a request isn't merged into a sync that never runs
+        assertEquals(SyncRequestCoordinator.DECISION_REQUESTED, mCoordinator.requestSync(
+                SyncRequestCoordinator.REASON_WATCH_REQUEST, mPreferredLocation));
+        assertEquals(2, mRequests.size());
+    }
+
+    public void testScheduledSync() {
+        assertEquals(SyncRequestCoordinator.REASON_SCHEDULED,
+                mCoordinator.onSyncStarted(new Bundle(), Arrays.asList(mPreferredLocation)));
+        mCoordinator.onSyncFinished();
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Checks the intervals the scheduler picks, and that they stay within their bounds.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+
+    // 14:00, neither night nor morning
+    private static final int AFTERNOON = 14 * 60;
+
+    private final List<Integer> mIntervals = new ArrayList<Integer>();
+    private SyncScheduler mScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences(SyncScheduler.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        mScheduler = new SyncScheduler(mContext, new SyncScheduler.PeriodicSyncRequester() {
+            @Override
+            public void requestPeriodicSync(int syncInterval, int flexTime) {
+                mIntervals.add(syncInterval);
+            }
+        });
+    }
+
+    private static SyncScheduler.Decision decide(float volatility, int daysAhead, int minuteOfDay,
+                                                 boolean metered, int batteryPercent,
+                                                 boolean charging) {
+        SyncScheduler.Decision decision = SyncScheduler.decide(0, new SyncScheduler.Conditions(
+                volatility, daysAhead, minuteOfDay, metered, batteryPercent, charging));
+        assertTrue("Error: Interval below its bound: " + decision,
+                decision.getInterval() >= SyncScheduler.MIN_INTERVAL);
+        assertTrue("Error: Interval above its bound: " + decision,
+                decision.getInterval() <= SyncScheduler.MAX_INTERVAL);
+        assertTrue(decision.getFlex() >= 0 && decision.getFlex() <= decision.getInterval());
+        return decision;
+    }
+
+    public void testDefaultConditionsKeepBaseInterval() {
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, decide(SyncScheduler.DEFAULT_VOLATILITY,
+                14, AFTERNOON, false, 80, false).getInterval());
+    }
+
+    public void testVolatileWeatherSyncedMoreOften() {
+        int settled = decide(0f, 14, AFTERNOON, false, 80, false).getInterval();
+        int changing = decide(0.8f, 14, AFTERNOON, false, 80, false).getInterval();
+        assertTrue(settled > SunshineSyncAdapter.SYNC_INTERVAL);
+        assertTrue(changing < SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    public void testShortForecastSyncedSooner() {
+        assertTrue(decide(SyncScheduler.DEFAULT_VOLATILITY, 2, AFTERNOON, false, 80, false)
+                .getInterval() < SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    public void testMeteredAndLowBatterySpreadOut() {
+        int metered = decide(SyncScheduler.DEFAULT_VOLATILITY, 14, AFTERNOON, true, 80, false)
+                .getInterval();
+        int lowBattery = decide(SyncScheduler.DEFAULT_VOLATILITY, 14, AFTERNOON, false,
+                SyncScheduler.LOW_BATTERY_PERCENT, false).getInterval();
+        int charging = decide(SyncScheduler.DEFAULT_VOLATILITY, 14, AFTERNOON, false,
+                SyncScheduler.LOW_BATTERY_PERCENT, true).getInterval();
+        assertTrue(metered > SunshineSyncAdapter.SYNC_INTERVAL);
+        assertTrue(lowBattery > SunshineSyncAdapter.SYNC_INTERVAL);
+        assertTrue(charging < SunshineSyncAdapter.SYNC_INTERVAL);
+
+        // Everything at once still within the bounds
+        decide(0f, 14, AFTERNOON, true, 5, false);
+        decide(1f, 0, AFTERNOON, false, 100, true);
+    }
+
+    public void testNightHeldUntilMorning() {
+        // 23:30: the next sync runs in the hour before 6:00
+        SyncScheduler.Decision decision = decide(1f, 14, 23 * 60 + 30, false, 80, true);
+        assertTrue(decision.isNight());
+        int untilMorning = (6 * 60 + 30) * 60;
+        assertEquals(untilMorning, decision.getInterval());
+        assertTrue(decision.getInterval() - decision.getFlex() >= untilMorning - 60 * 60);
+
+        // 5:30: just before the morning, no need to wait
+        decision = decide(SyncScheduler.DEFAULT_VOLATILITY, 14, 5 * 60 + 30, false, 80, false);
+        assertFalse("Error: A sync that wasn't held reported as held", decision.isNight());
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, decision.getInterval());
+    }
+
+    public void testVolatilityFromSyncStages() {
+        List<SyncMetrics.Record> stages = Arrays.asList(
+                record(SyncMetrics.STAGE_CONNECT, 0, SyncMetrics.OUTCOME_OK),
+                record(SyncMetrics.STAGE_PARSE, 14, SyncMetrics.OUTCOME_OK),
+                record(SyncMetrics.STAGE_STORE, 7, SyncMetrics.OUTCOME_OK));
+        assertEquals(0.5f, SyncScheduler.getVolatility(stages), 0.001f);
+
+        // Nothing changed on the server
+        stages = Arrays.asList(
+                record(SyncMetrics.STAGE_CONNECT, 0, SyncMetrics.OUTCOME_NOT_MODIFIED));
+        assertEquals(0f, SyncScheduler.getVolatility(stages), 0.001f);
+
+        // Nothing synced: no volatility known
+        stages = Arrays.asList(record(SyncMetrics.STAGE_CONNECT, 0, SyncMetrics.OUTCOME_FAILED));
+        assertTrue(SyncScheduler.getVolatility(stages) < 0);
+    }
+
+    public void testRescheduleRequestsAndKeepsDecision() {
+        assertNull(mScheduler.getLastDecision());
+
+        List<SyncMetrics.Record> stages = Arrays.asList(
+                record(SyncMetrics.STAGE_PARSE, 14, SyncMetrics.OUTCOME_OK),
+                record(SyncMetrics.STAGE_STORE, 14, SyncMetrics.OUTCOME_OK));
+        SyncScheduler.Decision decision = mScheduler.reschedule(stages);
+        assertEquals(Arrays.asList(decision.getInterval()), mIntervals);
+        assertEquals(1f, decision.getConditions().getVolatility(), 0.001f);
+
+        SyncScheduler.Decision lastDecision = mScheduler.getLastDecision();
+        assertNotNull(lastDecision);
+        assertEquals(decision.getDecidedAt(), lastDecision.getDecidedAt());
+        assertEquals(decision.getInterval(), lastDecision.getInterval());
+        assertEquals(decision.getFlex(), lastDecision.getFlex());
+
+        // A sync that changed nothing halves the smoothed volatility
+        stages = Arrays.asList(
+                record(SyncMetrics.STAGE_CONNECT, 0, SyncMetrics.OUTCOME_NOT_MODIFIED));
+        assertEquals(0.5f, mScheduler.reschedule(stages).getConditions().getVolatility(),
+                0.001f);
+        assertEquals(2, mIntervals.size());
+    }
+
+    public void testIntervalIsTheLastRequested() {
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, mScheduler.getInterval());
+
+        // What the stored forecast's freshness is measured against, see SyncRequestCoordinator
+        List<SyncMetrics.Record> stages = Arrays.asList(
+                record(SyncMetrics.STAGE_CONNECT, 0, SyncMetrics.OUTCOME_NOT_MODIFIED));
+        SyncScheduler.Decision decision = mScheduler.reschedule(stages);
+        assertEquals(decision.getInterval(), mScheduler.getInterval());
+    }
+
+    private static SyncMetrics.Record record(String stage, int rows, String outcome) {
+        return new SyncMetrics.Record(0, "99705", stage, 0, 0, rows, outcome,
+                SyncRequestCoordinator.REASON_SCHEDULED);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.TodaySnapshot;
+import com.example.android.sunshine.app.Utility;
+import com.google.android.gms.wearable.PutDataRequest;
+
+/*
+    Checks what is sent to the watch face, depending on what was last sent to it.
+ */
+public class TestWatchFaceData extends AndroidTestCase {
+
+    private Bitmap mIcon;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Nothing sent yet
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        editor.remove(mContext.getString(R.string.pref_last_watch_face_high_temp_key));
+        editor.remove(mContext.getString(R.string.pref_last_watch_face_low_temp_key));
+        editor.remove(mContext.getString(R.string.pref_last_watch_face_weather_id_key));
+        editor.commit();
+        mIcon = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+    }
+
+    private WatchFaceData createData(int weatherId, double high) {
+        TodaySnapshot today = TodaySnapshot.update(mContext,
+                Utility.getPreferredLocation(mContext), System.currentTimeMillis(), weatherId,
+                "Clear", high, 10);
+        return new WatchFaceData(mContext, today, mIcon);
+    }
+
+    public void testOnlyChangesSent() {
+        WatchFaceData data = createData(800, 20);
+        PutDataRequest request = data.toRequest(mContext, false);
+        assertNotNull("Error: Nothing sent to a watch face that has nothing", request);
+        assertNotNull(request.getAsset("weather-icon"));
+        data.onSent(mContext, true);
+
+        assertNull("Error: The data last sent was sent again",
+                createData(800, 20).toRequest(mContext, false));
+
+        // The weather didn't change: no icon
+        request = createData(800, 25).toRequest(mContext, false);
+        assertNotNull(request);
+        assertNull(request.getAsset("weather-icon"));
+    }
+
+    public void testFullRequestSendsEverything() {
+        WatchFaceData data = createData(800, 20);
+        data.onSent(mContext, true);
+
+        // A watch face just started has nothing, whatever was sent before
+        PutDataRequest request = createData(800, 20).toRequest(mContext, true);
+        assertNotNull(request);
+        assertNotNull(request.getAsset("weather-icon"));
+    }
+
+    public void testFailedSendNotRecorded() {
+        WatchFaceData data = createData(800, 20);
+        data.onSent(mContext, false);
+        assertNotNull("Error: Data that failed to be sent wasn't sent again",
+                createData(800, 20).toRequest(mContext, false));
+    }
+}
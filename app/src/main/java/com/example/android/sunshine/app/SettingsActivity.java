@@ -27,6 +27,7 @@ import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncRequestCoordinator;
 
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
@@ -48,6 +49,7 @@ public class SettingsActivity extends PreferenceActivity
         // For all preferences, attach an OnPreferenceChangeListener so the UI summary can be
         // updated when the preference changes.
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_favourite_locations_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
     }
@@ -135,7 +137,13 @@ public class SettingsActivity extends PreferenceActivity
             // we've changed the location
             // first clear locationStatus
             Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            SunshineSyncAdapter.syncImmediately(this,
+                    SyncRequestCoordinator.REASON_LOCATION_CHANGED,
+                    Utility.getPreferredLocation(this));
+        } else if ( key.equals(getString(R.string.pref_favourite_locations_key)) ) {
+            // we've changed the favourite locations, fetch the new ones
+            SunshineSyncAdapter.syncImmediately(this,
+                    SyncRequestCoordinator.REASON_FAVOURITES_CHANGED, null);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Today's weather at the preferred location, as the today widget, Muzei, the notification and
+ * the watch face show it: the raw values along with the temperatures already formatted for
+ * both unit systems.
+ *
+ * Today's weather is the first row of the forecast from today on, today's row unless it's
+ * missing, e.g. right after a change of time zone.  The sync adapter writes it whenever it
+ * stores a new forecast for the preferred location, and every reader then gets it from memory.
+ * Only when it is missing, or from a past day or another location, is the row read again, from
+ * the published {@link ForecastSnapshot} or else the provider, and the snapshot rebuilt.  The
+ * snapshot is kept in the shared preferences too, so it survives the process.
+ */
+public class TodaySnapshot {
+
+    private static final String PREFS_NAME = "today_snapshot";
+
+    private static final String KEY_LOCATION_SETTING = "location_setting";
+    private static final String KEY_DATE = "date";
+    private static final String KEY_WEATHER_ID = "weather_id";
+    private static final String KEY_DESCRIPTION = "description";
+    private static final String KEY_HIGH = "high";
+    private static final String KEY_LOW = "low";
+    private static final String KEY_HIGH_METRIC = "high_metric";
+    private static final String KEY_LOW_METRIC = "low_metric";
+    private static final String KEY_HIGH_IMPERIAL = "high_imperial";
+    private static final String KEY_LOW_IMPERIAL = "low_imperial";
+    private static final String KEY_IMAGE_URL = "image_url";
+
+    private static final String[] TODAY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    // The last snapshot read or written in this process
+    private static TodaySnapshot sSnapshot;
+
+    private final String mLocationSetting;
+    private final long mDate;
+    private final int mWeatherId;
+    private final String mDescription;
+    private final double mHigh;
+    private final double mLow;
+    private final String mHighMetric;
+    private final String mLowMetric;
+    private final String mHighImperial;
+    private final String mLowImperial;
+    // Muzei's wallpaper, null when there is none for this weather
+    private final String mImageUrl;
+
+    private TodaySnapshot(String locationSetting, long date, int weatherId, String description,
+                          double high, double low, String highMetric, String lowMetric,
+                          String highImperial, String lowImperial, String imageUrl) {
+        mLocationSetting = locationSetting;
+        mDate = date;
+        mWeatherId = weatherId;
+        mDescription = description;
+        mHigh = high;
+        mLow = low;
+        mHighMetric = highMetric;
+        mLowMetric = lowMetric;
+        mHighImperial = highImperial;
+        mLowImperial = lowImperial;
+        mImageUrl = imageUrl;
+    }
+
+    private static TodaySnapshot create(Context context, String locationSetting, long date,
+                                        int weatherId, String description, double high,
+                                        double low) {
+        return new TodaySnapshot(locationSetting, date, weatherId, description, high, low,
+                Utility.formatTemperature(context, high, true),
+                Utility.formatTemperature(context, low, true),
+                Utility.formatTemperature(context, high, false),
+                Utility.formatTemperature(context, low, false),
+                Utility.getImageUrlForWeatherCondition(weatherId));
+    }
+
+    /**
+     * Returns today's weather at the preferred location, querying it only if the snapshot is
+     * missing or stale.  Don't call this from the UI thread.
+     *
+     * @return the snapshot, or null if there is no forecast from today on.
+     */
+    public static synchronized TodaySnapshot get(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        if (sSnapshot == null) {
+            sSnapshot = load(context);
+        }
+        if (sSnapshot == null || !sSnapshot.isFor(locationSetting, today)) {
+            sSnapshot = query(context, locationSetting, today);
+            if (sSnapshot != null) {
+                save(context, sSnapshot);
+            }
+        }
+        return sSnapshot;
+    }
+
+    /**
+     * Records today's weather at a location, as just stored by the sync adapter.  This function
+     * should not be called from the UI thread because it uses commit to write to the shared
+     * preferences.
+     */
+    public static synchronized TodaySnapshot update(Context context, String locationSetting,
+                                                    long date, int weatherId, String description,
+                                                    double high, double low) {
+        sSnapshot = create(context, locationSetting, WeatherContract.normalizeDate(date),
+                weatherId, description, high, low);
+        save(context, sSnapshot);
+        return sSnapshot;
+    }
+
+    // A later day stands for today until the sync stores today's row, and updates the snapshot
+    private boolean isFor(String locationSetting, long today) {
+        return mDate >= today && mLocationSetting.equals(locationSetting);
+    }
+
+    private static TodaySnapshot query(Context context, String locationSetting, long today) {
+        // The forecast the sync published has days from today on unless it's too old
+        ForecastSnapshot forecast = ForecastSnapshot.open(context, locationSetting);
+        if (forecast != null) {
+            int row = forecast.firstRowFrom(today);
+            if (row < forecast.getCount()) {
+                return create(context, locationSetting, forecast.getDate(row),
+                        forecast.getWeatherId(row), forecast.getShortDesc(row),
+                        forecast.getMaxTemp(row), forecast.getMinTemp(row));
+            }
+        }
+
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(locationSetting,
+                today);
+        Cursor cursor = context.getContentResolver().query(uri, TODAY_COLUMNS, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return create(context, locationSetting, cursor.getLong(INDEX_DATE),
+                    cursor.getInt(INDEX_WEATHER_ID), cursor.getString(INDEX_SHORT_DESC),
+                    cursor.getDouble(INDEX_MAX_TEMP), cursor.getDouble(INDEX_MIN_TEMP));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static TodaySnapshot load(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String locationSetting = prefs.getString(KEY_LOCATION_SETTING, null);
+        if (locationSetting == null) {
+            return null;
+        }
+        return new TodaySnapshot(locationSetting,
+                prefs.getLong(KEY_DATE, 0),
+                prefs.getInt(KEY_WEATHER_ID, -1),
+                prefs.getString(KEY_DESCRIPTION, null),
+                Double.longBitsToDouble(prefs.getLong(KEY_HIGH, 0)),
+                Double.longBitsToDouble(prefs.getLong(KEY_LOW, 0)),
+                prefs.getString(KEY_HIGH_METRIC, null),
+                prefs.getString(KEY_LOW_METRIC, null),
+                prefs.getString(KEY_HIGH_IMPERIAL, null),
+                prefs.getString(KEY_LOW_IMPERIAL, null),
+                prefs.getString(KEY_IMAGE_URL, null));
+    }
+
+    private static void save(Context context, TodaySnapshot snapshot) {
+        SharedPreferences.Editor editor =
+                context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+        editor.putString(KEY_LOCATION_SETTING, snapshot.mLocationSetting);
+        editor.putLong(KEY_DATE, snapshot.mDate);
+        editor.putInt(KEY_WEATHER_ID, snapshot.mWeatherId);
+        editor.putString(KEY_DESCRIPTION, snapshot.mDescription);
+        editor.putLong(KEY_HIGH, Double.doubleToLongBits(snapshot.mHigh));
+        editor.putLong(KEY_LOW, Double.doubleToLongBits(snapshot.mLow));
+        editor.putString(KEY_HIGH_METRIC, snapshot.mHighMetric);
+        editor.putString(KEY_LOW_METRIC, snapshot.mLowMetric);
+        editor.putString(KEY_HIGH_IMPERIAL, snapshot.mHighImperial);
+        editor.putString(KEY_LOW_IMPERIAL, snapshot.mLowImperial);
+        editor.putString(KEY_IMAGE_URL, snapshot.mImageUrl);
+        editor.commit();
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public long getDate() {
+        return mDate;
+    }
+
+    public int getWeatherId() {
+        return mWeatherId;
+    }
+
+    public String getDescription() {
+        return mDescription;
+    }
+
+    public double getHigh() {
+        return mHigh;
+    }
+
+    public double getLow() {
+        return mLow;
+    }
+
+    public String getFormattedHigh(boolean isMetric) {
+        return isMetric ? mHighMetric : mHighImperial;
+    }
+
+    public String getFormattedLow(boolean isMetric) {
+        return isMetric ? mLowMetric : mLowImperial;
+    }
+
+    public String getImageUrl() {
+        return mImageUrl;
+    }
+}
@@ -26,8 +26,12 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 public class Utility {
     public static String getPreferredLocation(Context context) {
@@ -36,6 +40,30 @@ public class Utility {
                 context.getString(R.string.pref_location_default));
     }
 
+    /**
+     * Helper method to read the favourite locations, which are synced along with the preferred
+     * location.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return the favourite location settings, without duplicates, in the order the user gave
+     * them.
+     */
+    public static List<String> getFavouriteLocations(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String favourites = prefs.getString(
+                context.getString(R.string.pref_favourite_locations_key), "");
+        // Location settings may contain commas themselves ("London, UK"), so entries are
+        // separated by semicolons.
+        Set<String> locations = new LinkedHashSet<String>();
+        for (String location : favourites.split(";")) {
+            location = location.trim();
+            if (location.length() > 0) {
+                locations.add(location);
+            }
+        }
+        return new ArrayList<String>(locations);
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
@@ -44,10 +72,17 @@ public class Utility {
     }
 
     public static String formatTemperature(Context context, double temperature) {
+        return formatTemperature(context, temperature, isMetric(context));
+    }
+
+    /**
+     * Formats a temperature for the given unit system, whatever the one in the settings.
+     */
+    public static String formatTemperature(Context context, double temperature, boolean isMetric) {
         // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
         // the values here.
         String suffix = "\u00B0";
-        if (!isMetric(context)) {
+        if (!isMetric) {
             temperature = (temperature * 1.8) + 32;
         }
 
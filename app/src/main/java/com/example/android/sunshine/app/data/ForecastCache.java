@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-through cache of the stored forecast of the last few locations queried, joined with
+ * their location, held column by column in primitive arrays.  The list, the detail view, the
+ * widgets, Muzei and the notification all ask for the same forecast over and over, and only a
+ * sync changes it, so most of their queries can be answered without SQLite.
+ *
+ * The provider invalidates the cache on every write.  A forecast loaded while a write was
+ * committing is handed out but not kept, so the cache never outlives the rows it was read from.
+ */
+class ForecastCache {
+
+    private static final int MAX_LOCATIONS = 8;
+
+    // The columns of a cached row, as projections name them
+    static final int COLUMN_WEATHER_ROW_ID = 0;
+    static final int COLUMN_LOC_KEY = 1;
+    static final int COLUMN_DATE = 2;
+    static final int COLUMN_WEATHER_ID = 3;
+    static final int COLUMN_SHORT_DESC = 4;
+    static final int COLUMN_MIN_TEMP = 5;
+    static final int COLUMN_MAX_TEMP = 6;
+    static final int COLUMN_HUMIDITY = 7;
+    static final int COLUMN_PRESSURE = 8;
+    static final int COLUMN_WIND_SPEED = 9;
+    static final int COLUMN_DEGREES = 10;
+    static final int COLUMN_LOCATION_SETTING = 11;
+    static final int COLUMN_CITY_NAME = 12;
+    static final int COLUMN_COORD_LAT = 13;
+    static final int COLUMN_COORD_LONG = 14;
+    static final int COLUMN_CITY_ID = 15;
+
+    // Loaded in the order of the column constants above
+    private static final String[] LOAD_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_CITY_ID
+    };
+
+    private static final MathContext SQLITE_REAL_PRECISION = new MathContext(15);
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private final WeatherDbHelper mOpenHelper;
+
+    // Most recently used last
+    private final LinkedHashMap<String, Forecast> mForecasts =
+            new LinkedHashMap<String, Forecast>(MAX_LOCATIONS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Forecast> eldest) {
+                    return size() > MAX_LOCATIONS;
+                }
+            };
+
+    // Bumped by every invalidation
+    private long mGeneration;
+
+    ForecastCache(WeatherDbHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    /**
+     * Answers weather/[location]?date=[start date], or every date when startDate is 0.
+     *
+     * @return the cursor, or null if the cache can't answer the projection or the sort order.
+     */
+    Cursor queryFromDate(String locationSetting, long startDate, String[] projection,
+                         String sortOrder) {
+        int[] columns = resolveProjection(projection);
+        if (columns == null || !isSortedByDate(sortOrder)) {
+            return null;
+        }
+        Forecast forecast = getForecast(locationSetting);
+        int first = forecast.firstRowFrom(startDate);
+        return new ForecastCursor(forecast, columns, projection, first, forecast.mSize - first);
+    }
+
+    /**
+     * Answers weather/[location]/[date].
+     *
+     * @return the cursor, or null if the cache can't answer the projection or the sort order.
+     */
+    Cursor queryDate(String locationSetting, long date, String[] projection, String sortOrder) {
+        int[] columns = resolveProjection(projection);
+        if (columns == null || !isSortedByDate(sortOrder)) {
+            return null;
+        }
+        Forecast forecast = getForecast(locationSetting);
+        int first = forecast.firstRowFrom(date);
+        int count = first < forecast.mSize && forecast.mDates[first] == date ? 1 : 0;
+        return new ForecastCursor(forecast, columns, projection, first, count);
+    }
+
+    /**
+     * Forgets every cached forecast.  To be called once a write has committed.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mForecasts.clear();
+    }
+
+    private Forecast getForecast(String locationSetting) {
+        long generation;
+        synchronized (this) {
+            Forecast forecast = mForecasts.get(locationSetting);
+            if (forecast != null) {
+                return forecast;
+            }
+            generation = mGeneration;
+        }
+
+        // Loaded outside the lock, so a slow load doesn't hold up other locations
+        Forecast forecast = load(locationSetting);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mForecasts.put(locationSetting, forecast);
+            }
+        }
+        return forecast;
+    }
+
+    private Forecast load(String locationSetting) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db,
+                LOAD_COLUMNS, WeatherProvider.sLocationSettingSelection,
+                new String[]{locationSetting}, null, null, SORT_BY_DATE);
+        try {
+            Forecast forecast = new Forecast(cursor.getCount());
+            while (cursor.moveToNext()) {
+                forecast.add(cursor);
+            }
+            return forecast;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean isSortedByDate(String sortOrder) {
+        // Without an order, SQLite goes through the location/date index anyway
+        return sortOrder == null || SORT_BY_DATE.equals(sortOrder);
+    }
+
+    /**
+     * @return the cached column of every column of the projection, or null if the cache doesn't
+     * hold one of them.
+     */
+    private static int[] resolveProjection(String[] projection) {
+        if (projection == null) {
+            // "*" of the join, with its two _id columns: leave it to SQLite
+            return null;
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = resolveColumn(projection[i]);
+            if (columns[i] == -1) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    private static int resolveColumn(String name) {
+        if (name.equals(WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID)) {
+            return COLUMN_WEATHER_ROW_ID;
+        }
+        if (name.equals(LocationEntry.TABLE_NAME + "." + LocationEntry._ID)) {
+            return COLUMN_LOC_KEY;
+        }
+        // A bare _id is ambiguous in the join, so it isn't found below.  Neither is anything
+        // else the cache doesn't hold, expressions included.
+        name = stripTableName(name);
+        for (int i = COLUMN_LOC_KEY; i < LOAD_COLUMNS.length; i++) {
+            if (LOAD_COLUMNS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the column name SQLite gives a column of a projection: its name without the
+     * table.
+     */
+    static String stripTableName(String name) {
+        if (name.startsWith(WeatherEntry.TABLE_NAME + ".")
+                || name.startsWith(LocationEntry.TABLE_NAME + ".")) {
+            return name.substring(name.indexOf('.') + 1);
+        }
+        return name;
+    }
+
+    /**
+     * The forecast of a location, sorted by date.  Never modified once loaded, so any number of
+     * cursors can read it at once.
+     */
+    static class Forecast {
+        int mSize;
+        final long[] mRowIds;
+        final long[] mDates;
+        final int[] mWeatherIds;
+        final String[] mShortDescs;
+        final double[] mMinTemps;
+        final double[] mMaxTemps;
+        final double[] mHumidities;
+        final double[] mPressures;
+        final double[] mWindSpeeds;
+        final double[] mDegrees;
+
+        // The same for every row
+        long mLocationId;
+        String mLocationSetting;
+        String mCityName;
+        double mCoordLat;
+        double mCoordLong;
+        Long mCityId;
+
+        Forecast(int capacity) {
+            mRowIds = new long[capacity];
+            mDates = new long[capacity];
+            mWeatherIds = new int[capacity];
+            mShortDescs = new String[capacity];
+            mMinTemps = new double[capacity];
+            mMaxTemps = new double[capacity];
+            mHumidities = new double[capacity];
+            mPressures = new double[capacity];
+            mWindSpeeds = new double[capacity];
+            mDegrees = new double[capacity];
+        }
+
+        void add(Cursor cursor) {
+            if (mSize == 0) {
+                mLocationId = cursor.getLong(COLUMN_LOC_KEY);
+                mLocationSetting = cursor.getString(COLUMN_LOCATION_SETTING);
+                mCityName = cursor.getString(COLUMN_CITY_NAME);
+                mCoordLat = cursor.getDouble(COLUMN_COORD_LAT);
+                mCoordLong = cursor.getDouble(COLUMN_COORD_LONG);
+                mCityId = cursor.isNull(COLUMN_CITY_ID) ? null : cursor.getLong(COLUMN_CITY_ID);
+            }
+            mRowIds[mSize] = cursor.getLong(COLUMN_WEATHER_ROW_ID);
+            mDates[mSize] = cursor.getLong(COLUMN_DATE);
+            mWeatherIds[mSize] = cursor.getInt(COLUMN_WEATHER_ID);
+            mShortDescs[mSize] = cursor.getString(COLUMN_SHORT_DESC);
+            mMinTemps[mSize] = cursor.getDouble(COLUMN_MIN_TEMP);
+            mMaxTemps[mSize] = cursor.getDouble(COLUMN_MAX_TEMP);
+            mHumidities[mSize] = cursor.getDouble(COLUMN_HUMIDITY);
+            mPressures[mSize] = cursor.getDouble(COLUMN_PRESSURE);
+            mWindSpeeds[mSize] = cursor.getDouble(COLUMN_WIND_SPEED);
+            mDegrees[mSize] = cursor.getDouble(COLUMN_DEGREES);
+            mSize++;
+        }
+
+        /**
+         * @return the first row dated on or after the given date, mSize if there is none.
+         */
+        int firstRowFrom(long date) {
+            int row = Arrays.binarySearch(mDates, 0, mSize, date);
+            if (row < 0) {
+                return -(row + 1);
+            }
+            // Dates are unique per location, but better safe than sorry
+            while (row > 0 && mDates[row - 1] == date) {
+                row--;
+            }
+            return row;
+        }
+
+        int getType(int column) {
+            switch (column) {
+                case COLUMN_SHORT_DESC:
+                case COLUMN_LOCATION_SETTING:
+                case COLUMN_CITY_NAME:
+                    return Cursor.FIELD_TYPE_STRING;
+                case COLUMN_MIN_TEMP:
+                case COLUMN_MAX_TEMP:
+                case COLUMN_HUMIDITY:
+                case COLUMN_PRESSURE:
+                case COLUMN_WIND_SPEED:
+                case COLUMN_DEGREES:
+                case COLUMN_COORD_LAT:
+                case COLUMN_COORD_LONG:
+                    return Cursor.FIELD_TYPE_FLOAT;
+                case COLUMN_CITY_ID:
+                    return mCityId == null ? Cursor.FIELD_TYPE_NULL : Cursor.FIELD_TYPE_INTEGER;
+                default:
+                    return Cursor.FIELD_TYPE_INTEGER;
+            }
+        }
+
+        long getLong(int column, int row) {
+            switch (column) {
+                case COLUMN_WEATHER_ROW_ID:
+                    return mRowIds[row];
+                case COLUMN_LOC_KEY:
+                    return mLocationId;
+                case COLUMN_DATE:
+                    return mDates[row];
+                case COLUMN_WEATHER_ID:
+                    return mWeatherIds[row];
+                case COLUMN_CITY_ID:
+                    return mCityId == null ? 0 : mCityId;
+                case COLUMN_SHORT_DESC:
+                case COLUMN_LOCATION_SETTING:
+                case COLUMN_CITY_NAME:
+                    return parseLong(getString(column, row));
+                default:
+                    return (long) getDouble(column, row);
+            }
+        }
+
+        double getDouble(int column, int row) {
+            switch (column) {
+                case COLUMN_MIN_TEMP:
+                    return mMinTemps[row];
+                case COLUMN_MAX_TEMP:
+                    return mMaxTemps[row];
+                case COLUMN_HUMIDITY:
+                    return mHumidities[row];
+                case COLUMN_PRESSURE:
+                    return mPressures[row];
+                case COLUMN_WIND_SPEED:
+                    return mWindSpeeds[row];
+                case COLUMN_DEGREES:
+                    return mDegrees[row];
+                case COLUMN_COORD_LAT:
+                    return mCoordLat;
+                case COLUMN_COORD_LONG:
+                    return mCoordLong;
+                case COLUMN_SHORT_DESC:
+                case COLUMN_LOCATION_SETTING:
+                case COLUMN_CITY_NAME:
+                    return parseDouble(getString(column, row));
+                default:
+                    return getLong(column, row);
+            }
+        }
+
+        String getString(int column, int row) {
+            switch (column) {
+                case COLUMN_SHORT_DESC:
+                    return mShortDescs[row];
+                case COLUMN_LOCATION_SETTING:
+                    return mLocationSetting;
+                case COLUMN_CITY_NAME:
+                    return mCityName;
+                case COLUMN_CITY_ID:
+                    return mCityId == null ? null : Long.toString(mCityId);
+                default:
+                    return getType(column) == Cursor.FIELD_TYPE_FLOAT
+                            ? formatReal(getDouble(column, row))
+                            : Long.toString(getLong(column, row));
+            }
+        }
+
+        // The text SQLite gives a REAL: 15 significant digits, and at least one decimal
+        private static String formatReal(double value) {
+            String text = new BigDecimal(value).round(SQLITE_REAL_PRECISION)
+                    .stripTrailingZeros().toPlainString();
+            return text.indexOf('.') == -1 ? text + ".0" : text;
+        }
+
+        // SQLite reads the leading number of a string, and 0 when there is none
+        private static long parseLong(String value) {
+            return (long) parseDouble(value);
+        }
+
+        private static double parseDouble(String value) {
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.AbstractCursor;
+
+/**
+ * Cursor over a range of rows of a forecast held by the {@link ForecastCache}, reading the
+ * values straight from its arrays.
+ */
+class ForecastCursor extends AbstractCursor {
+
+    private final ForecastCache.Forecast mForecast;
+    // The cached column of every column of the cursor
+    private final int[] mColumns;
+    private final String[] mColumnNames;
+    private final int mFirstRow;
+    private final int mCount;
+
+    ForecastCursor(ForecastCache.Forecast forecast, int[] columns, String[] projection,
+                   int firstRow, int count) {
+        mForecast = forecast;
+        mColumns = columns;
+        mColumnNames = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            mColumnNames[i] = ForecastCache.stripTableName(projection[i]);
+        }
+        mFirstRow = firstRow;
+        mCount = count;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        return mForecast.getType(mColumns[column]);
+    }
+
+    @Override
+    public String getString(int column) {
+        return mForecast.getString(mColumns[column], row());
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) mForecast.getLong(mColumns[column], row());
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) mForecast.getLong(mColumns[column], row());
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mForecast.getLong(mColumns[column], row());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) mForecast.getDouble(mColumns[column], row());
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mForecast.getDouble(mColumns[column], row());
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getType(column) == FIELD_TYPE_NULL;
+    }
+
+    private int row() {
+        checkPosition();
+        return mFirstRow + mPos;
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The forecast of a location as a compact binary file that readers map into memory, so the
+ * widgets can read a few numbers straight from the page cache instead of querying the
+ * {@link WeatherProvider} and copying the rows through a cursor window.
+ *
+ * The sync adapter publishes the file whenever it stores a new forecast for the location.  The
+ * new version is written to a temporary file that is then renamed over the old one, so a reader
+ * maps either the old file or the new one, never a half-written one.  A mapping stays valid
+ * after its file has been replaced, it just keeps the forecast it was opened with.
+ *
+ * The file is in the native byte order: a header, the days in date order as rows of a fixed
+ * size, and the strings they point to.
+ * <pre>
+ *   header: int magic, int version, long published millis, int row count,
+ *           int location setting offset
+ *   row:    long date, int weather id, int short desc offset, double min temp,
+ *           double max temp, double humidity, double pressure, double wind speed,
+ *           double degrees
+ *   string: unsigned short length in bytes, UTF-8 bytes
+ * </pre>
+ * A file with another magic number or version is ignored, and readers go to the provider.
+ */
+public class ForecastSnapshot {
+
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "forecasts";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    // "SUNF"
+    private static final int MAGIC = 0x53554e46;
+    // Bump whenever the layout changes
+    static final int VERSION = 1;
+
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_PUBLISHED = 8;
+    private static final int HEADER_ROW_COUNT = 16;
+    private static final int HEADER_LOCATION_SETTING = 20;
+    private static final int HEADER_SIZE = 24;
+
+    private static final int ROW_DATE = 0;
+    private static final int ROW_WEATHER_ID = 8;
+    private static final int ROW_SHORT_DESC = 12;
+    private static final int ROW_MIN_TEMP = 16;
+    private static final int ROW_MAX_TEMP = 24;
+    private static final int ROW_HUMIDITY = 32;
+    private static final int ROW_PRESSURE = 40;
+    private static final int ROW_WIND_SPEED = 48;
+    private static final int ROW_DEGREES = 56;
+    private static final int ROW_SIZE = 64;
+
+    // Offset of a null string
+    private static final int NO_STRING = -1;
+    private static final int MAX_STRING_BYTES = 0xffff;
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+
+    private ForecastSnapshot(ByteBuffer buffer, int count) {
+        mBuffer = buffer;
+        mCount = count;
+    }
+
+    /**
+     * Writes the forecast of a location, replacing the one published before.  The rows of the
+     * batch must all be days of this location, in date order.  This function should not be
+     * called from the UI thread.
+     */
+    public static void publish(Context context, String locationSetting, WeatherBatch batch,
+                               long publishedMillis) throws IOException {
+        int count = batch.size();
+        for (int row = 1; row < count; row++) {
+            if (batch.getDate(row) <= batch.getDate(row - 1)) {
+                throw new IllegalArgumentException("Days out of order at row " + row);
+            }
+        }
+
+        // The strings go after the rows, each distinct one once: a forecast only has a handful
+        // of descriptions
+        StringTable strings = new StringTable(HEADER_SIZE + count * ROW_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(strings.end(locationSetting, batch))
+                .order(ByteOrder.nativeOrder());
+
+        buffer.putInt(HEADER_MAGIC, MAGIC);
+        buffer.putInt(HEADER_VERSION, VERSION);
+        buffer.putLong(HEADER_PUBLISHED, publishedMillis);
+        buffer.putInt(HEADER_ROW_COUNT, count);
+        buffer.putInt(HEADER_LOCATION_SETTING, strings.offsetOf(locationSetting));
+        for (int row = 0; row < count; row++) {
+            int offset = HEADER_SIZE + row * ROW_SIZE;
+            buffer.putLong(offset + ROW_DATE, batch.getDate(row));
+            buffer.putInt(offset + ROW_WEATHER_ID, batch.getWeatherId(row));
+            buffer.putInt(offset + ROW_SHORT_DESC, strings.offsetOf(batch.getShortDesc(row)));
+            buffer.putDouble(offset + ROW_MIN_TEMP, batch.getMinTemp(row));
+            buffer.putDouble(offset + ROW_MAX_TEMP, batch.getMaxTemp(row));
+            buffer.putDouble(offset + ROW_HUMIDITY, batch.getHumidity(row));
+            buffer.putDouble(offset + ROW_PRESSURE, batch.getPressure(row));
+            buffer.putDouble(offset + ROW_WIND_SPEED, batch.getWindSpeed(row));
+            buffer.putDouble(offset + ROW_DEGREES, batch.getDegrees(row));
+        }
+        strings.writeTo(buffer);
+        buffer.rewind();
+
+        File directory = getDirectory(context);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        File file = getFile(context, locationSetting);
+        File tempFile = new File(directory, file.getName() + TEMP_FILE_SUFFIX);
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // On disk before the rename, or a crash could leave an empty file in place of the
+            // old one
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Can't replace " + file);
+        }
+    }
+
+    /**
+     * Maps the forecast last published for a location.
+     *
+     * @return the forecast, or null if none was published or it can't be read, in which case
+     * the provider has to be queried.
+     */
+    public static ForecastSnapshot open(Context context, String locationSetting) {
+        File file = getFile(context, locationSetting);
+        MappedByteBuffer buffer;
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                // The mapping outlives the file descriptor
+                buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                        input.length());
+            } finally {
+                input.close();
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error mapping " + file, e);
+            return null;
+        }
+        buffer.order(ByteOrder.nativeOrder());
+
+        if (buffer.capacity() < HEADER_SIZE
+                || buffer.getInt(HEADER_MAGIC) != MAGIC
+                || buffer.getInt(HEADER_VERSION) != VERSION) {
+            return null;
+        }
+        int count = buffer.getInt(HEADER_ROW_COUNT);
+        if (count < 0 || count > (buffer.capacity() - HEADER_SIZE) / ROW_SIZE) {
+            Log.w(LOG_TAG, "Corrupt forecast in " + file);
+            return null;
+        }
+        ForecastSnapshot snapshot = new ForecastSnapshot(buffer, count);
+        if (!locationSetting.equals(snapshot.getLocationSetting())) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Deletes the forecasts of every location but the given ones, e.g. of the favourites the
+     * user has removed.  Must not run while a forecast is being published.
+     */
+    public static void deleteAllExcept(Context context, Collection<String> locationSettings) {
+        File[] files = getDirectory(context).listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> fileNames = new HashSet<String>();
+        for (String locationSetting : locationSettings) {
+            fileNames.add(getFileName(locationSetting));
+        }
+        for (File file : files) {
+            if (!fileNames.contains(file.getName())) {
+                file.delete();
+            }
+        }
+    }
+
+    public static boolean exists(Context context, String locationSetting) {
+        return getFile(context, locationSetting).exists();
+    }
+
+    private static File getDirectory(Context context) {
+        return new File(context.getFilesDir(), DIRECTORY_NAME);
+    }
+
+    private static File getFile(Context context, String locationSetting) {
+        return new File(getDirectory(context), getFileName(locationSetting));
+    }
+
+    private static String getFileName(String locationSetting) {
+        // Location settings are free text: in hex, any of them is a valid and distinct name
+        byte[] bytes = locationSetting.getBytes(StandardCharsets.UTF_8);
+        StringBuilder name = new StringBuilder(bytes.length * 2 + FILE_SUFFIX.length());
+        for (byte b : bytes) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16));
+            name.append(Character.forDigit(b & 0xf, 16));
+        }
+        return name.append(FILE_SUFFIX).toString();
+    }
+
+    public String getLocationSetting() {
+        return getString(mBuffer.getInt(HEADER_LOCATION_SETTING));
+    }
+
+    /**
+     * @return when the forecast was published, in milliseconds since the epoch.
+     */
+    public long getPublishedMillis() {
+        return mBuffer.getLong(HEADER_PUBLISHED);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the first row on or after the given normalized date, or the count if there is
+     * none.
+     */
+    public int firstRowFrom(long date) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getDate(middle) < date) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public long getDate(int row) {
+        return mBuffer.getLong(rowOffset(row) + ROW_DATE);
+    }
+
+    public int getWeatherId(int row) {
+        return mBuffer.getInt(rowOffset(row) + ROW_WEATHER_ID);
+    }
+
+    public String getShortDesc(int row) {
+        return getString(mBuffer.getInt(rowOffset(row) + ROW_SHORT_DESC));
+    }
+
+    public double getMinTemp(int row) {
+        return mBuffer.getDouble(rowOffset(row) + ROW_MIN_TEMP);
+    }
+
+    public double getMaxTemp(int row) {
+        return mBuffer.getDouble(rowOffset(row) + ROW_MAX_TEMP);
+    }
+
+    public double getHumidity(int row) {
+        return mBuffer.getDouble(rowOffset(row) + ROW_HUMIDITY);
+    }
+
+    public double getPressure(int row) {
+        return mBuffer.getDouble(rowOffset(row) + ROW_PRESSURE);
+    }
+
+    public double getWindSpeed(int row) {
+        return mBuffer.getDouble(rowOffset(row) + ROW_WIND_SPEED);
+    }
+
+    public double getDegrees(int row) {
+        return mBuffer.getDouble(rowOffset(row) + ROW_DEGREES);
+    }
+
+    private int rowOffset(int row) {
+        if (row < 0 || row >= mCount) {
+            throw new IndexOutOfBoundsException("Row " + row + ", count " + mCount);
+        }
+        return HEADER_SIZE + row * ROW_SIZE;
+    }
+
+    private String getString(int offset) {
+        if (offset == NO_STRING) {
+            return null;
+        }
+        int length = mBuffer.getShort(offset) & MAX_STRING_BYTES;
+        byte[] bytes = new byte[length];
+        // A view of its own, so readers on other threads don't move each other's position
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(offset + 2);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The strings of a file being written, laid out one after the other from a given offset.
+     */
+    private static class StringTable {
+
+        private final Map<String, Integer> mOffsets = new HashMap<String, Integer>();
+        private final List<byte[]> mStrings = new ArrayList<byte[]>();
+        private final int mStart;
+        private int mEnd;
+
+        StringTable(int start) {
+            mStart = start;
+            mEnd = start;
+        }
+
+        /**
+         * Lays out the strings of a forecast.
+         *
+         * @return the size of the file.
+         */
+        int end(String locationSetting, WeatherBatch batch) {
+            add(locationSetting);
+            for (int row = 0; row < batch.size(); row++) {
+                add(batch.getShortDesc(row));
+            }
+            return mEnd;
+        }
+
+        private void add(String string) {
+            if (string == null || mOffsets.containsKey(string)) {
+                return;
+            }
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_STRING_BYTES) {
+                throw new IllegalArgumentException("String too long: " + string);
+            }
+            mOffsets.put(string, mEnd);
+            mStrings.add(bytes);
+            mEnd += 2 + bytes.length;
+        }
+
+        int offsetOf(String string) {
+            return string == null ? NO_STRING : mOffsets.get(string);
+        }
+
+        void writeTo(ByteBuffer buffer) {
+            buffer.position(mStart);
+            for (byte[] bytes : mStrings) {
+                buffer.putShort((short) bytes.length);
+                buffer.put(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The change notifications held back while a batch of operations runs in a transaction, to be
+ * published once it commits.
+ *
+ * A notification on a URI also reaches the observers of its descendants, so a URI is dropped
+ * when it, or one of its ancestors, is already pending.
+ */
+class PendingNotifications {
+
+    private final List<Uri> mUris = new ArrayList<Uri>();
+
+    void add(Uri uri) {
+        for (Iterator<Uri> it = mUris.iterator(); it.hasNext(); ) {
+            Uri pending = it.next();
+            if (isAncestorOrSelf(pending, uri)) {
+                return;
+            }
+            if (isAncestorOrSelf(uri, pending)) {
+                it.remove();
+            }
+        }
+        mUris.add(uri);
+    }
+
+    int size() {
+        return mUris.size();
+    }
+
+    List<Uri> getUris() {
+        return mUris;
+    }
+
+    void publish(ContentResolver resolver) {
+        for (Uri uri : mUris) {
+            resolver.notifyChange(uri, null);
+        }
+        mUris.clear();
+    }
+
+    private static boolean isAncestorOrSelf(Uri ancestor, Uri uri) {
+        if (!ancestor.getAuthority().equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() <= segments.size()
+                && ancestorSegments.equals(segments.subList(0, ancestorSegments.size()));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/**
+ * The aggregates of {@link AggregateEntry}, computed by SQLite in a single GROUP BY over the
+ * days of the forecast, the partitions of the history in the range and the weeks of the
+ * history, so only one row per location leaves the database.
+ */
+final class WeatherAggregates {
+
+    // The wind of a day and its date packed in one integer, so that a single MAX finds the
+    // windiest day along with its wind, the latest one on a tie.  Dates in milliseconds stay
+    // below this until the year 2286, and winds in hundredths would have to go past 900 km/s
+    // to overflow.
+    private static final long WINDIEST_FACTOR = 10000000000000L;
+
+    // Columns of the rows the aggregates are computed from, days and weeks alike
+    private static final String COLUMN_MIN_MAX_SUM = "min_max_sum";
+    private static final String COLUMN_WINDIEST = "windiest";
+
+    private WeatherAggregates() {
+    }
+
+    /**
+     * Queries the aggregates of one location, or of all of them, over a range of dates.
+     *
+     * @param locationSetting The location, null for all of them.
+     * @param startDate       The first date of the range, included.
+     * @param endDate         The last date of the range, included.
+     */
+    static Cursor query(SQLiteDatabase db, String locationSetting, long startDate,
+                        long endDate, String[] projection, String sortOrder) {
+        ArrayList<String> args = new ArrayList<String>();
+        String sql = buildQuery(db, locationSetting, startDate, endDate, projection, sortOrder,
+                args);
+        return db.rawQuery(sql, args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Builds the query of {@link #query}, adding its arguments to the given list.
+     */
+    static String buildQuery(SQLiteDatabase db, String locationSetting, long startDate,
+                             long endDate, String[] projection, String sortOrder,
+                             ArrayList<String> args) {
+        StringBuilder rows = new StringBuilder();
+        appendDays(rows, WeatherStorage.TABLE_WEATHER_DATA);
+        appendRange(rows, args, locationSetting, startDate, endDate);
+        Time time = new Time();
+        for (int firstDay : WeatherHistory.queryPartitions(db)) {
+            if (WeatherHistory.isInRange(time, firstDay, startDate, endDate)) {
+                rows.append(" UNION ALL ");
+                appendDays(rows, WeatherHistory.partitionName(firstDay));
+                appendRange(rows, args, locationSetting, startDate, endDate);
+            }
+        }
+        rows.append(" UNION ALL ");
+        appendWeeks(rows);
+        appendRange(rows, args, locationSetting, startDate, endDate);
+
+        String aggregates = "(SELECT " +
+                WeatherEntry.COLUMN_LOC_KEY + " AS " + AggregateEntry._ID + ", " +
+                "(SELECT " + LocationEntry.COLUMN_LOCATION_SETTING + " FROM " +
+                LocationEntry.TABLE_NAME + " WHERE " + LocationEntry.TABLE_NAME + "." +
+                LocationEntry._ID + " = " + WeatherEntry.COLUMN_LOC_KEY + ") AS " +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                "SUM(" + AggregateEntry.COLUMN_DAYS + ") AS " + AggregateEntry.COLUMN_DAYS + ", " +
+                "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + ") / " + scale() + " AS " +
+                AggregateEntry.COLUMN_MIN_TEMP + ", " +
+                "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + ") / " + scale() + " AS " +
+                AggregateEntry.COLUMN_MAX_TEMP + ", " +
+                "SUM(" + COLUMN_MIN_MAX_SUM + ") / (2 * " + scale() + " * SUM(" +
+                AggregateEntry.COLUMN_DAYS + ")) AS " + AggregateEntry.COLUMN_MEAN_TEMP + ", " +
+                "SUM(" + AggregateEntry.COLUMN_WET_DAYS + ") AS " +
+                AggregateEntry.COLUMN_WET_DAYS + ", " +
+                "MAX(" + COLUMN_WINDIEST + ") / " + WINDIEST_FACTOR + " / " + scale() + " AS " +
+                AggregateEntry.COLUMN_MAX_WIND + ", " +
+                "MAX(" + COLUMN_WINDIEST + ") % " + WINDIEST_FACTOR + " AS " +
+                AggregateEntry.COLUMN_WINDIEST_DATE +
+                " FROM (" + rows + ") GROUP BY " + WeatherEntry.COLUMN_LOC_KEY + ")";
+
+        return SQLiteQueryBuilder.buildQueryString(false, aggregates, projection, null, null,
+                null, sortOrder, null);
+    }
+
+    // 100.0, dividing the stored hundredths back to units
+    private static String scale() {
+        return WeatherStorage.FIXED_POINT_SCALE + ".0";
+    }
+
+    //SELECT location_id, date, 1 AS days, min, max, min + max AS min_max_sum,
+    //    weather_id < 700 AS wet_days, wind * 10000000000000 + date AS windiest FROM <table>
+    private static void appendDays(StringBuilder rows, String table) {
+        rows.append("SELECT ")
+                .append(WeatherEntry.COLUMN_LOC_KEY).append(", ")
+                .append(WeatherEntry.COLUMN_DATE).append(", ")
+                .append("1 AS ").append(AggregateEntry.COLUMN_DAYS).append(", ")
+                .append(WeatherEntry.COLUMN_MIN_TEMP).append(", ")
+                .append(WeatherEntry.COLUMN_MAX_TEMP).append(", ")
+                .append(WeatherEntry.COLUMN_MIN_TEMP).append(" + ")
+                .append(WeatherEntry.COLUMN_MAX_TEMP).append(" AS ")
+                .append(COLUMN_MIN_MAX_SUM).append(", ")
+                .append(WeatherEntry.COLUMN_WEATHER_ID).append(" < ")
+                .append(AggregateEntry.FIRST_DRY_WEATHER_ID).append(" AS ")
+                .append(AggregateEntry.COLUMN_WET_DAYS).append(", ")
+                .append(WeatherEntry.COLUMN_WIND_SPEED).append(" * ").append(WINDIEST_FACTOR)
+                .append(" + ").append(WeatherEntry.COLUMN_DATE).append(" AS ")
+                .append(COLUMN_WINDIEST)
+                .append(" FROM ").append(table);
+    }
+
+    //SELECT location_id, date, days, min, max, 2 * mean * days, wet_days,
+    //    max_wind * 10000000000000 + windiest_date FROM weather_weeks
+    private static void appendWeeks(StringBuilder rows) {
+        rows.append("SELECT ")
+                .append(WeatherEntry.COLUMN_LOC_KEY).append(", ")
+                .append(WeatherEntry.COLUMN_DATE).append(", ")
+                .append(AggregateEntry.COLUMN_DAYS).append(", ")
+                .append(WeatherEntry.COLUMN_MIN_TEMP).append(", ")
+                .append(WeatherEntry.COLUMN_MAX_TEMP).append(", ")
+                .append("2 * ").append(AggregateEntry.COLUMN_MEAN_TEMP).append(" * ")
+                .append(AggregateEntry.COLUMN_DAYS).append(", ")
+                .append(AggregateEntry.COLUMN_WET_DAYS).append(", ")
+                .append(AggregateEntry.COLUMN_MAX_WIND).append(" * ").append(WINDIEST_FACTOR)
+                .append(" + ").append(AggregateEntry.COLUMN_WINDIEST_DATE)
+                .append(" FROM ").append(WeatherHistory.TABLE_WEEKS);
+    }
+
+    // WHERE location_id = (SELECT _id FROM location WHERE location_setting = ?)
+    //     AND date >= ? AND date <= ?
+    private static void appendRange(StringBuilder rows, ArrayList<String> args,
+                                    String locationSetting, long startDate, long endDate) {
+        rows.append(" WHERE ");
+        if (locationSetting != null) {
+            rows.append(WeatherEntry.COLUMN_LOC_KEY).append(" = (SELECT ")
+                    .append(LocationEntry._ID).append(" FROM ").append(LocationEntry.TABLE_NAME)
+                    .append(" WHERE ").append(LocationEntry.COLUMN_LOCATION_SETTING)
+                    .append(" = ?) AND ");
+            args.add(locationSetting);
+        }
+        rows.append(WeatherEntry.COLUMN_DATE).append(" >= ? AND ")
+                .append(WeatherEntry.COLUMN_DATE).append(" <= ?");
+        args.add(Long.toString(startDate));
+        args.add(Long.toString(endDate));
+    }
+}
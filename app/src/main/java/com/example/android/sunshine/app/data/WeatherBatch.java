@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * Rows of the weather table held column by column in primitive arrays, so a whole forecast can
+ * be handed to the {@link WeatherProvider} without boxing every value into a ContentValues.
+ */
+public class WeatherBatch {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Keys of the columns when the batch travels in a Bundle
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+    private static final String KEY_DATE = WeatherEntry.COLUMN_DATE;
+    private static final String KEY_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+    private static final String KEY_SHORT_DESC = WeatherEntry.COLUMN_SHORT_DESC;
+    private static final String KEY_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+    private static final String KEY_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+    private static final String KEY_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+    private static final String KEY_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+    private static final String KEY_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+    private static final String KEY_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+    // The columns a ContentValues must have, and only have, to fit in a batch
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private int mSize;
+    private long[] mLocKeys;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private String[] mShortDescs;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    public WeatherBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public WeatherBatch(int capacity) {
+        mLocKeys = new long[capacity];
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mShortDescs = new String[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Appends a row to the batch.
+     */
+    public void add(long locationId, long date, int weatherId, String shortDesc,
+                    double minTemp, double maxTemp, double humidity, double pressure,
+                    double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+        mLocKeys[mSize] = locationId;
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mShortDescs[mSize] = shortDesc;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    /**
+     * Sets the location of every row, for when it's only known once the rows have been added.
+     */
+    public void setLocationId(long locationId) {
+        Arrays.fill(mLocKeys, 0, mSize, locationId);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        Arrays.fill(mShortDescs, 0, mSize, null);
+        mSize = 0;
+    }
+
+    public long getLocationId(int row) {
+        return mLocKeys[row];
+    }
+
+    public long getDate(int row) {
+        return mDates[row];
+    }
+
+    public int getWeatherId(int row) {
+        return mWeatherIds[row];
+    }
+
+    public String getShortDesc(int row) {
+        return mShortDescs[row];
+    }
+
+    public double getMinTemp(int row) {
+        return mMinTemps[row];
+    }
+
+    public double getMaxTemp(int row) {
+        return mMaxTemps[row];
+    }
+
+    public double getHumidity(int row) {
+        return mHumidities[row];
+    }
+
+    public double getPressure(int row) {
+        return mPressures[row];
+    }
+
+    public double getWindSpeed(int row) {
+        return mWindSpeeds[row];
+    }
+
+    public double getDegrees(int row) {
+        return mDegrees[row];
+    }
+
+    /**
+     * @return the first row for the given location and date, or -1 if there is none.
+     */
+    public int indexOf(long locationId, long date) {
+        for (int i = 0; i < mSize; i++) {
+            if (mDates[i] == date && mLocKeys[i] == locationId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether a row of this batch holds the same weather as a row of another batch,
+     * whatever their location and date.
+     */
+    public boolean sameWeather(int row, WeatherBatch other, int otherRow) {
+        return mWeatherIds[row] == other.mWeatherIds[otherRow]
+                && mMinTemps[row] == other.mMinTemps[otherRow]
+                && mMaxTemps[row] == other.mMaxTemps[otherRow]
+                && mHumidities[row] == other.mHumidities[otherRow]
+                && mPressures[row] == other.mPressures[otherRow]
+                && mWindSpeeds[row] == other.mWindSpeeds[otherRow]
+                && mDegrees[row] == other.mDegrees[otherRow]
+                && (mShortDescs[row] == null ? other.mShortDescs[otherRow] == null
+                        : mShortDescs[row].equals(other.mShortDescs[otherRow]));
+    }
+
+    /**
+     * Appends a row of another batch to this one.
+     */
+    public void add(WeatherBatch other, int otherRow) {
+        add(other.mLocKeys[otherRow], other.mDates[otherRow], other.mWeatherIds[otherRow],
+                other.mShortDescs[otherRow], other.mMinTemps[otherRow],
+                other.mMaxTemps[otherRow], other.mHumidities[otherRow],
+                other.mPressures[otherRow], other.mWindSpeeds[otherRow],
+                other.mDegrees[otherRow]);
+    }
+
+    /**
+     * @return the rows of the batch with their values as the {@link WeatherProvider} gives them
+     * back once stored.
+     */
+    public WeatherBatch toStoredPrecision() {
+        return WeatherStorage.toStoredPrecision(this);
+    }
+
+    /**
+     * Packs the batch into a Bundle, as expected by {@link WeatherEntry#METHOD_BULK_INSERT}.
+     * Within the app process the Bundle isn't parcelled, so the arrays are handed over as is.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putInt(KEY_SIZE, mSize);
+        bundle.putLongArray(KEY_LOC_KEY, mLocKeys);
+        bundle.putLongArray(KEY_DATE, mDates);
+        bundle.putIntArray(KEY_WEATHER_ID, mWeatherIds);
+        bundle.putStringArray(KEY_SHORT_DESC, mShortDescs);
+        bundle.putDoubleArray(KEY_MIN_TEMP, mMinTemps);
+        bundle.putDoubleArray(KEY_MAX_TEMP, mMaxTemps);
+        bundle.putDoubleArray(KEY_HUMIDITY, mHumidities);
+        bundle.putDoubleArray(KEY_PRESSURE, mPressures);
+        bundle.putDoubleArray(KEY_WIND_SPEED, mWindSpeeds);
+        bundle.putDoubleArray(KEY_DEGREES, mDegrees);
+        return bundle;
+    }
+
+    /**
+     * Unpacks a batch packed by {@link #toBundle()}.
+     *
+     * @throws IllegalArgumentException if the Bundle doesn't hold a batch.
+     */
+    public static WeatherBatch fromBundle(Bundle bundle) {
+        WeatherBatch batch = new WeatherBatch(0);
+        if (bundle == null || !bundle.containsKey(KEY_SIZE)) {
+            throw new IllegalArgumentException("No weather batch in " + bundle);
+        }
+        batch.mSize = bundle.getInt(KEY_SIZE);
+        batch.mLocKeys = bundle.getLongArray(KEY_LOC_KEY);
+        batch.mDates = bundle.getLongArray(KEY_DATE);
+        batch.mWeatherIds = bundle.getIntArray(KEY_WEATHER_ID);
+        batch.mShortDescs = bundle.getStringArray(KEY_SHORT_DESC);
+        batch.mMinTemps = bundle.getDoubleArray(KEY_MIN_TEMP);
+        batch.mMaxTemps = bundle.getDoubleArray(KEY_MAX_TEMP);
+        batch.mHumidities = bundle.getDoubleArray(KEY_HUMIDITY);
+        batch.mPressures = bundle.getDoubleArray(KEY_PRESSURE);
+        batch.mWindSpeeds = bundle.getDoubleArray(KEY_WIND_SPEED);
+        batch.mDegrees = bundle.getDoubleArray(KEY_DEGREES);
+        if (batch.mLocKeys == null || batch.mDates == null || batch.mWeatherIds == null
+                || batch.mShortDescs == null || batch.mMinTemps == null
+                || batch.mMaxTemps == null || batch.mHumidities == null
+                || batch.mPressures == null || batch.mWindSpeeds == null
+                || batch.mDegrees == null) {
+            throw new IllegalArgumentException("Incomplete weather batch in " + bundle);
+        }
+        return batch;
+    }
+
+    /**
+     * Copies rows given as ContentValues into a batch.
+     *
+     * @return the batch, or null if some row doesn't have exactly the columns of a batch.
+     */
+    static WeatherBatch fromContentValues(ContentValues[] values) {
+        WeatherBatch batch = new WeatherBatch(values.length);
+        for (ContentValues value : values) {
+            if (value.size() != COLUMNS.length) {
+                return null;
+            }
+            for (String column : COLUMNS) {
+                if (value.get(column) == null) {
+                    return null;
+                }
+            }
+            batch.add(value.getAsLong(WeatherEntry.COLUMN_LOC_KEY),
+                    value.getAsLong(WeatherEntry.COLUMN_DATE),
+                    value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    value.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                    value.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                    value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                    value.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+        }
+        return batch;
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, mDates.length * 2);
+        mLocKeys = Arrays.copyOf(mLocKeys, capacity);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+}
@@ -21,6 +21,8 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.format.Time;
 
+import java.util.List;
+
 /**
  * Defines table and column names for the weather database.
  */
@@ -43,6 +45,9 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_AGGREGATE = "aggregate";
+    public static final String PATH_WEATHER_LOCATIONS = "weather_locations";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,6 +86,11 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // OpenWeatherMap's own id for the city, as returned by openweathermap.  Once known, it's
+        // used instead of the location setting to ask for the forecast, since it's unambiguous.
+        // Stored as an integer, null until the first successful sync of the location.
+        public static final String COLUMN_CITY_ID = "city_id";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -126,6 +136,39 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Provider method, used with ContentResolver.call(), inserting the rows of a
+        // WeatherBatch given as extras.  The number of rows inserted is returned under
+        // KEY_ROW_COUNT.
+        public static final String METHOD_BULK_INSERT = "bulk_insert";
+
+        public static final String KEY_ROW_COUNT = "row_count";
+
+        // Provider method, used with ContentResolver.call(), replacing the stored forecast with
+        // the rows of a WeatherBatch given as extras: the rows that differ from the stored ones
+        // are written and every row dated before KEY_PRUNE_BEFORE (by default, the first date
+        // of the batch) is moved to the history, see HistoryEntry, all in a single
+        // transaction.  Only the URIs built by buildWeatherLocationWithDate for the dates
+        // written or moved, and HistoryEntry.CONTENT_URI when days were moved, are notified, so
+        // observers of other locations and other days aren't woken up.  The number of rows
+        // written is returned under KEY_ROW_COUNT, and their dates under KEY_CHANGED_DATES.
+        public static final String METHOD_REPLACE_FORECAST = "replace_forecast";
+
+        public static final String KEY_PRUNE_BEFORE = "prune_before";
+
+        // True for a batch of a forecast stored in several: no row is moved to the history, the
+        // last batch of the forecast does it once for all of them.
+        public static final String KEY_PARTIAL = "partial";
+
+        public static final String KEY_CHANGED_DATES = "changed_dates";
+
+        // The days of several locations at once, see buildWeatherLocations: one query and one
+        // cursor, ordered by location setting then date unless another sort order is given.
+        public static final Uri LOCATIONS_CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER_LOCATIONS).build();
+
+        public static final String QUERY_LOCATION = "location";
+        public static final String QUERY_END_DATE = "end_date";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,10 +192,30 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /**
+         * @return the URI of the days of the given locations from startDate to endDate, both
+         * included.
+         */
+        public static Uri buildWeatherLocations(String[] locationSettings, long startDate,
+                                                long endDate) {
+            Uri.Builder builder = LOCATIONS_CONTENT_URI.buildUpon();
+            for (String locationSetting : locationSettings) {
+                builder.appendQueryParameter(QUERY_LOCATION, locationSetting);
+            }
+            return builder
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(QUERY_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
+        public static List<String> getLocationSettingsFromUri(Uri uri) {
+            return uri.getQueryParameters(QUERY_LOCATION);
+        }
+
         public static long getDateFromUri(Uri uri) {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
@@ -164,5 +227,141 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(QUERY_END_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /* Inner class that defines the contents of the weather history */
+    public static final class HistoryEntry implements BaseColumns {
+
+        // The past days of every location.  Deleting it clears the whole history.
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        // The history of a location is made of the days the forecast has moved past: one row
+        // per day for the last months, one row per week before that, as far back as the space
+        // the history is given allows.  Rows have the columns of WeatherEntry but its
+        // location_id, the date of a week being the date of its Monday, and COLUMN_DAYS.  The
+        // _id of a row is twice its date, plus 1 for a week, so it's unique even when a day
+        // archived late has the date of a week summed up before.
+        //
+        // A week sums up its days: the lowest min and the highest max, the average humidity,
+        // pressure and wind, the wind direction of the windiest day, and the weather that came
+        // back the most often.
+
+        // Number of days a row stands for: 1 for a day, up to 7 for a week
+        public static final String COLUMN_DAYS = "days";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHistoryLocationWithStartDate(
+                String locationSetting, long startDate) {
+            long normalizedDate = normalizeDate(startDate);
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(WeatherEntry.COLUMN_DATE,
+                            Long.toString(normalizedDate)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            return WeatherEntry.getStartDateFromUri(uri);
+        }
+    }
+
+    /* Inner class that defines the aggregates of the weather over a range of days */
+    public static final class AggregateEntry implements BaseColumns {
+
+        // One row per location, with its location_setting and its location id as _id.  A row
+        // sums up the days of the location from QUERY_START_DATE to QUERY_END_DATE, both
+        // included and both optional, the days of the forecast and of the history alike.  A
+        // week of the history counts in the range of its Monday, as a whole.  Locations with
+        // no day in the range have no row.
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_AGGREGATE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATE;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATE;
+
+        public static final String QUERY_START_DATE = "start_date";
+        public static final String QUERY_END_DATE = "end_date";
+
+        // Number of days summed up
+        public static final String COLUMN_DAYS = HistoryEntry.COLUMN_DAYS;
+
+        // The lowest min and the highest max of the days
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+
+        // Mean temperature: the average over the days of the middle of their min and max
+        public static final String COLUMN_MEAN_TEMP = "mean";
+
+        // Number of days with rain, drizzle, snow or a thunderstorm, i.e. a weather id below 700
+        public static final String COLUMN_WET_DAYS = "wet_days";
+
+        // The wind of the windiest day, and its date
+        public static final String COLUMN_MAX_WIND = "max_wind";
+        public static final String COLUMN_WINDIEST_DATE = "windiest_date";
+
+        // Weather ids from this one on are dry: atmosphere, clear sky and clouds
+        public static final int FIRST_DRY_WEATHER_ID = 700;
+
+        public static Uri buildAggregateUri(long startDate, long endDate) {
+            return appendRange(CONTENT_URI.buildUpon(), startDate, endDate);
+        }
+
+        public static Uri buildAggregateLocation(String locationSetting, long startDate,
+                                                 long endDate) {
+            return appendRange(CONTENT_URI.buildUpon().appendPath(locationSetting), startDate,
+                    endDate);
+        }
+
+        // Long.MIN_VALUE and Long.MAX_VALUE leave the range open on that end
+        private static Uri appendRange(Uri.Builder builder, long startDate, long endDate) {
+            if (startDate != Long.MIN_VALUE) {
+                builder.appendQueryParameter(QUERY_START_DATE,
+                        Long.toString(normalizeDate(startDate)));
+            }
+            if (endDate != Long.MAX_VALUE) {
+                builder.appendQueryParameter(QUERY_END_DATE,
+                        Long.toString(normalizeDate(endDate)));
+            }
+            return builder.build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(QUERY_START_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MIN_VALUE;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(QUERY_END_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
     }
 }
@@ -16,9 +16,12 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.app.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -27,13 +30,54 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add the
+    // step from the previous version to upgradeFrom.
+    static final int DATABASE_VERSION = 7;
+
+    // Oldest version onUpgrade migrates in place, older ones are recreated empty
+    static final int FIRST_MIGRATED_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Serves the forecast of a location, ordered by date, once the location has been found
+    // through the UNIQUE location_setting.  Pruning by date alone is served by the index of the
+    // UNIQUE (date, location_id) constraint.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX " + INDEX_WEATHER_LOCATION_DATE + " ON " +
+                    WeatherStorage.TABLE_WEATHER_DATA + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ");";
+
+    // Checkpoint policy of the write-ahead log.  The log is copied back into the database once
+    // it holds this many pages, a few syncs' worth, and then truncated to this size so it
+    // doesn't keep the space used by the biggest sync ever.
+    static final int WAL_AUTOCHECKPOINT_PAGES = 256;
+    static final long WAL_SIZE_LIMIT_BYTES = 512 * 1024;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With a write-ahead log, the list, the widgets and Muzei keep reading, each through a
+        // connection of the pool SQLiteDatabase keeps for readers, while the sync adapter
+        // writes a forecast, instead of waiting for its transaction to end.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Both pragmas return the new value, which execSQL doesn't accept
+        queryPragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        queryPragma(db, "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES);
+    }
+
+    private static void queryPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -45,54 +89,151 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER " +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
-
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        // The weather table is a view over compactly stored rows, see WeatherStorage
+        sqLiteDatabase.execSQL(WeatherStorage.SQL_CREATE_DESCRIPTION_TABLE);
+        sqLiteDatabase.execSQL(WeatherStorage.SQL_CREATE_WEATHER_DATA_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(WeatherStorage.SQL_CREATE_WEATHER_VIEW);
+        // The days of the history are in partitions, created as days are moved there, see
+        // WeatherHistory
+        sqLiteDatabase.execSQL(WeatherHistory.SQL_CREATE_WEEKS_TABLE);
+        sqLiteDatabase.execSQL(WeatherHistory.SQL_CREATE_WEEKS_DATE_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        // Every schema change gets a step below, altering the tables in place, so an upgrade
+        // keeps the forecasts instead of having every device download them again at once.
+        // SQLiteOpenHelper runs the whole upgrade in one transaction.
+        if (oldVersion < FIRST_MIGRATED_VERSION) {
+            // Nothing knows what these versions looked like: start over
+            // Versions this old had a weather table, not the view and its tables
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            upgradeFrom(sqLiteDatabase, version);
+        }
+    }
+
+    /**
+     * Upgrades the schema from the given version to the next one.
+     */
+    static void upgradeFrom(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                // The OpenWeatherMap city id of a location.  Left null, the sync adapter fills
+                // it in with the next forecast of the location.
+                db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                        LocationEntry.COLUMN_CITY_ID + " INTEGER");
+                break;
+            case 3:
+                // On the weather table of the time, which the next version replaces
+                db.execSQL("CREATE INDEX " + INDEX_WEATHER_LOCATION_DATE + " ON " +
+                        WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                        WeatherEntry.COLUMN_DATE + ")");
+                break;
+            case 4:
+                // The compact storage of WeatherStorage behind a weather view.  Row ids are kept,
+                // so are the values, rounded to the precision they are now stored with.
+                db.execSQL(WeatherStorage.SQL_CREATE_DESCRIPTION_TABLE);
+                db.execSQL(WeatherStorage.SQL_CREATE_WEATHER_DATA_TABLE);
+                db.execSQL("INSERT INTO " + WeatherStorage.TABLE_DESCRIPTION + " (" +
+                        WeatherEntry.COLUMN_SHORT_DESC + ") SELECT DISTINCT " +
+                        WeatherEntry.COLUMN_SHORT_DESC + " FROM " + WeatherEntry.TABLE_NAME);
+                db.execSQL("INSERT INTO " + WeatherStorage.TABLE_WEATHER_DATA + " (" +
+                        WeatherEntry._ID + ", " +
+                        WeatherEntry.COLUMN_LOC_KEY + ", " +
+                        WeatherEntry.COLUMN_DATE + ", " +
+                        WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                        WeatherStorage.COLUMN_DESC_ID + ", " +
+                        WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                        WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                        WeatherEntry.COLUMN_HUMIDITY + ", " +
+                        WeatherEntry.COLUMN_PRESSURE + ", " +
+                        WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                        WeatherEntry.COLUMN_DEGREES + ") SELECT " +
+                        "w." + WeatherEntry._ID + ", " +
+                        "w." + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                        "w." + WeatherEntry.COLUMN_DATE + ", " +
+                        "w." + WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                        "d." + WeatherEntry._ID + ", " +
+                        fixedPoint("w", WeatherEntry.COLUMN_MIN_TEMP) + ", " +
+                        fixedPoint("w", WeatherEntry.COLUMN_MAX_TEMP) + ", " +
+                        fixedPoint("w", WeatherEntry.COLUMN_HUMIDITY) + ", " +
+                        fixedPoint("w", WeatherEntry.COLUMN_PRESSURE) + ", " +
+                        fixedPoint("w", WeatherEntry.COLUMN_WIND_SPEED) + ", " +
+                        fixedPoint("w", WeatherEntry.COLUMN_DEGREES) +
+                        " FROM " + WeatherEntry.TABLE_NAME + " w INNER JOIN " +
+                        WeatherStorage.TABLE_DESCRIPTION + " d ON w." +
+                        WeatherEntry.COLUMN_SHORT_DESC + " = d." + WeatherEntry.COLUMN_SHORT_DESC);
+                // Takes its index along
+                db.execSQL("DROP TABLE " + WeatherEntry.TABLE_NAME);
+                db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                db.execSQL(WeatherStorage.SQL_CREATE_WEATHER_VIEW);
+                break;
+            case 5:
+                // The history of WeatherHistory, starting empty, with the weeks of the time
+                db.execSQL("CREATE TABLE " + WeatherHistory.TABLE_WEEKS + " (" +
+                        WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                        HistoryEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                        WeatherStorage.COLUMN_DESC_ID + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+                        "PRIMARY KEY (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                        WeatherEntry.COLUMN_DATE + ")) WITHOUT ROWID");
+                break;
+            case 6:
+                // What the aggregates need of a week.  The days of the weeks already summed up
+                // are gone: their mean is taken as the middle of their min and max, their wet
+                // days as all or none of them by their weather, their windiest day as their
+                // Monday with their average wind.
+                addWeekColumn(db, AggregateEntry.COLUMN_MEAN_TEMP);
+                addWeekColumn(db, AggregateEntry.COLUMN_WET_DAYS);
+                addWeekColumn(db, AggregateEntry.COLUMN_MAX_WIND);
+                addWeekColumn(db, AggregateEntry.COLUMN_WINDIEST_DATE);
+                db.execSQL("UPDATE " + WeatherHistory.TABLE_WEEKS + " SET " +
+                        AggregateEntry.COLUMN_MEAN_TEMP + " = (" + WeatherEntry.COLUMN_MIN_TEMP +
+                        " + " + WeatherEntry.COLUMN_MAX_TEMP + ") / 2, " +
+                        AggregateEntry.COLUMN_WET_DAYS + " = CASE WHEN " +
+                        WeatherEntry.COLUMN_WEATHER_ID + " < " +
+                        AggregateEntry.FIRST_DRY_WEATHER_ID + " THEN " +
+                        HistoryEntry.COLUMN_DAYS + " ELSE 0 END, " +
+                        AggregateEntry.COLUMN_MAX_WIND + " = " +
+                        WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                        AggregateEntry.COLUMN_WINDIEST_DATE + " = " + WeatherEntry.COLUMN_DATE);
+                db.execSQL(WeatherHistory.SQL_CREATE_WEEKS_DATE_INDEX);
+                break;
+            default:
+                throw new IllegalStateException("No upgrade from database version " + version);
+        }
+    }
+
+    // NOT NULL needs a default for the rows already there, the UPDATE that follows sets them
+    private static void addWeekColumn(SQLiteDatabase db, String column) {
+        db.execSQL("ALTER TABLE " + WeatherHistory.TABLE_WEEKS + " ADD COLUMN " + column +
+                " INTEGER NOT NULL DEFAULT 0");
+    }
+
+    // CAST(round(w.min * 100) AS INTEGER), the SQL of WeatherStorage.toFixedPoint.  Only halves
+    // of a step below zero round differently, away from zero.
+    private static String fixedPoint(String table, String column) {
+        return "CAST(round(" + table + "." + column + " * " + WeatherStorage.FIXED_POINT_SCALE +
+                ") AS INTEGER)";
     }
 }
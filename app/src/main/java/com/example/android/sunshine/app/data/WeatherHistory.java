@@ -0,0 +1,564 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * The days the forecast has moved past, kept for {@link HistoryEntry}.
+ * <ul>
+ * <li>Days are partitioned by time, four weeks to a table, weather_days_ followed by the julian
+ * day of the first day.  A day is moved into its partition when the sync prunes it from the
+ * forecast.</li>
+ * <li>Partitions older than {@link #RETENTION_DAYS} are summed up in the weather_weeks table,
+ * one row per week and location, and dropped.  While the history holds more rows than
+ * {@link #ROW_BUDGET}, the oldest weeks are deleted, and only once there are none left are the
+ * oldest partitions of the retention summed up in weeks in turn.</li>
+ * </ul>
+ * Getting rid of old days is a DROP TABLE then, whatever their number, and the partitions of the
+ * recent past are the only ones a trend of the last weeks reads.  Rows are stored like the ones
+ * of {@link WeatherStorage}, keyed by location and date, with no row id.  There are no foreign
+ * keys: a location can go while its history stays, until the budget takes it.
+ */
+final class WeatherHistory {
+
+    // Partitions are named after the julian day of their first day.  Julian day 0 was a Monday,
+    // so a multiple of 7 is a Monday and a partition holds whole weeks.
+    private static final String PARTITION_PREFIX = "weather_days_";
+    static final int PARTITION_DAYS = 28;
+    private static final int WEEK_DAYS = 7;
+
+    static final String TABLE_WEEKS = "weather_weeks";
+
+    // Days older than this are summed up in weeks
+    static final int RETENTION_DAYS = 90;
+    // Rows of days and weeks, all locations together, the history may take: about 700 KB
+    static final int ROW_BUDGET = 20000;
+
+    // The columns of a day, the same as those of the rows of the forecast
+    private static final String[] DAY_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherStorage.COLUMN_DESC_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // Besides the columns of a day, a week keeps what the aggregates of its days need, see
+    // AggregateEntry: its mean temperature, its wet days and its windiest day.
+    static final String SQL_CREATE_WEEKS_TABLE = createTableSql("CREATE TABLE " + TABLE_WEEKS,
+            HistoryEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                    AggregateEntry.COLUMN_MEAN_TEMP + " INTEGER NOT NULL, " +
+                    AggregateEntry.COLUMN_WET_DAYS + " INTEGER NOT NULL, " +
+                    AggregateEntry.COLUMN_MAX_WIND + " INTEGER NOT NULL, " +
+                    AggregateEntry.COLUMN_WINDIEST_DATE + " INTEGER NOT NULL, ");
+
+    // Serves the aggregates of every location over a range of dates.  The days are served by
+    // their partitions, only those of the range are read.
+    static final String INDEX_WEEKS_DATE = "weather_weeks_date";
+
+    static final String SQL_CREATE_WEEKS_DATE_INDEX =
+            "CREATE INDEX " + INDEX_WEEKS_DATE + " ON " + TABLE_WEEKS + " (" +
+                    WeatherEntry.COLUMN_DATE + ")";
+
+    // The columns of a week summed up, as Week.addWeek reads them
+    private static final String[] WEEK_COLUMNS = {
+            HistoryEntry.COLUMN_DAYS,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherStorage.COLUMN_DESC_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            AggregateEntry.COLUMN_MEAN_TEMP,
+            AggregateEntry.COLUMN_WET_DAYS,
+            AggregateEntry.COLUMN_MAX_WIND,
+            AggregateEntry.COLUMN_WINDIEST_DATE
+    };
+
+    //INSERT OR REPLACE INTO weather_weeks (location_id, date, days, ...) VALUES (?, ?, ?, ...)
+    private static final String sInsertWeekSql =
+            "INSERT OR REPLACE INTO " + TABLE_WEEKS + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    HistoryEntry.COLUMN_DAYS + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherStorage.COLUMN_DESC_ID + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherEntry.COLUMN_DEGREES + ", " +
+                    AggregateEntry.COLUMN_MEAN_TEMP + ", " +
+                    AggregateEntry.COLUMN_WET_DAYS + ", " +
+                    AggregateEntry.COLUMN_MAX_WIND + ", " +
+                    AggregateEntry.COLUMN_WINDIEST_DATE +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Added to twice the date for the _id of a row: a week and a day of it archived since, not
+    // summed up yet, have the same date
+    private static final int ID_DAY = 0;
+    private static final int ID_WEEK = 1;
+
+    private WeatherHistory() {
+    }
+
+    private static String createTableSql(String createTable, String weekColumns) {
+        return createTable + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                weekColumns +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherStorage.COLUMN_DESC_ID + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+                "PRIMARY KEY (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ")) WITHOUT ROWID";
+    }
+
+    /**
+     * @return whether a partition has days from the start date to the end date, included.
+     */
+    static boolean isInRange(Time time, int firstDay, long startDate, long endDate) {
+        return time.setJulianDay(firstDay + PARTITION_DAYS) > startDate &&
+                time.setJulianDay(firstDay) <= endDate;
+    }
+
+    static String partitionName(int firstDay) {
+        return PARTITION_PREFIX + firstDay;
+    }
+
+    static int julianDay(Time time, long date) {
+        time.set(date);
+        return Time.getJulianDay(date, time.gmtoff);
+    }
+
+    // The first day of the partition, or of the week, of a day
+    private static int partitionOf(int julianDay) {
+        return julianDay - julianDay % PARTITION_DAYS;
+    }
+
+    private static int weekOf(int julianDay) {
+        return julianDay - julianDay % WEEK_DAYS;
+    }
+
+    /**
+     * @return the first day of every partition, oldest first.
+     */
+    static int[] queryPartitions(SQLiteDatabase db) {
+        Cursor cursor = db.query("sqlite_master", new String[]{"name"},
+                "type = 'table' AND name GLOB ?", new String[]{PARTITION_PREFIX + "*"},
+                null, null, null);
+        try {
+            int[] partitions = new int[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                partitions[i] = Integer.parseInt(
+                        cursor.getString(0).substring(PARTITION_PREFIX.length()));
+            }
+            Arrays.sort(partitions);
+            return partitions;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Copies the rows of the forecast dated before the given date into the partitions of their
+     * days, creating the partitions that don't exist yet.  Meant to be called in the
+     * transaction that then deletes them from the forecast.
+     *
+     * @return the number of days copied.
+     */
+    static int archive(SQLiteDatabase db, long before) {
+        Time time = new Time();
+        TreeSet<Integer> partitions = new TreeSet<Integer>();
+        Cursor dates = db.query(true, WeatherStorage.TABLE_WEATHER_DATA,
+                new String[]{WeatherEntry.COLUMN_DATE}, WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(before)}, null, null, null, null);
+        try {
+            while (dates.moveToNext()) {
+                partitions.add(partitionOf(julianDay(time, dates.getLong(0))));
+            }
+        } finally {
+            dates.close();
+        }
+
+        String columns = TextUtils.join(", ", DAY_COLUMNS);
+        int archived = 0;
+        for (int firstDay : partitions) {
+            String partition = partitionName(firstDay);
+            db.execSQL(createTableSql("CREATE TABLE IF NOT EXISTS " + partition, ""));
+            SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + partition +
+                    " (" + columns + ") SELECT " + columns + " FROM " +
+                    WeatherStorage.TABLE_WEATHER_DATA + " WHERE " +
+                    WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?");
+            try {
+                insert.bindLong(1, time.setJulianDay(firstDay));
+                insert.bindLong(2, Math.min(time.setJulianDay(firstDay + PARTITION_DAYS), before));
+                archived += insert.executeUpdateDelete();
+            } finally {
+                insert.close();
+            }
+        }
+        return archived;
+    }
+
+    /**
+     * Sums up in weeks the partitions whose days are all older than the retention.  Then, while
+     * the history is over its budget, deletes the oldest weeks, or sums up the oldest partition
+     * left once there are no weeks: the days of the retention go last.
+     *
+     * @param today         The day the retention counts back from.
+     * @param retentionDays How many days back are kept day by day.
+     * @param rowBudget     How many rows of days and weeks the history may hold.
+     */
+    static void compact(SQLiteDatabase db, long today, int retentionDays, int rowBudget) {
+        Time time = new Time();
+        int firstRetainedDay = julianDay(time, today) - retentionDays;
+        int[] partitions = queryPartitions(db);
+        int next = 0;
+        while (next < partitions.length && partitions[next] + PARTITION_DAYS <= firstRetainedDay) {
+            downsample(db, time, partitions[next++]);
+        }
+
+        // Counted again, rather than from what downsampling wrote: days may have been added to
+        // weeks already there
+        long rows = countRows(db);
+        while (rows > rowBudget) {
+            int deleted = deleteOldestWeeks(db, time);
+            if (deleted > 0) {
+                rows -= deleted;
+            } else if (next < partitions.length) {
+                downsample(db, time, partitions[next++]);
+                rows = countRows(db);
+            } else {
+                break;
+            }
+        }
+    }
+
+    // The rows of days and weeks of every location
+    private static long countRows(SQLiteDatabase db) {
+        long rows = DatabaseUtils.queryNumEntries(db, TABLE_WEEKS);
+        for (int firstDay : queryPartitions(db)) {
+            rows += DatabaseUtils.queryNumEntries(db, partitionName(firstDay));
+        }
+        return rows;
+    }
+
+    /**
+     * Sums up the days of a partition in weeks, then drops it.  A week already summed up, e.g.
+     * its first days while over the budget, gets the days of it archived since added to it.
+     *
+     * @return the number of weeks written.
+     */
+    private static int downsample(SQLiteDatabase db, Time time, int firstDay) {
+        String partition = partitionName(firstDay);
+        int weeks = 0;
+        // In primary key order, so the days of a week of a location follow each other
+        Cursor days = db.query(partition, DAY_COLUMNS, null, null, null, null,
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE);
+        SQLiteStatement insert = db.compileStatement(sInsertWeekSql);
+        try {
+            Week week = null;
+            while (days.moveToNext()) {
+                long locationId = days.getLong(0);
+                int firstDayOfWeek = weekOf(julianDay(time, days.getLong(1)));
+                if (week == null || week.mLocationId != locationId ||
+                        week.mFirstDay != firstDayOfWeek) {
+                    if (week != null) {
+                        week.insert(insert, time);
+                        weeks++;
+                    }
+                    week = new Week(locationId, firstDayOfWeek);
+                    week.addWeek(db, time);
+                }
+                week.add(days);
+            }
+            if (week != null) {
+                week.insert(insert, time);
+                weeks++;
+            }
+        } finally {
+            insert.close();
+            days.close();
+        }
+        db.execSQL("DROP TABLE " + partition);
+        return weeks;
+    }
+
+    // Deletes the weeks of every location up to the end of the partition of the oldest one
+    private static int deleteOldestWeeks(SQLiteDatabase db, Time time) {
+        long oldest;
+        Cursor cursor = db.rawQuery("SELECT MIN(" + WeatherEntry.COLUMN_DATE + ") FROM " +
+                TABLE_WEEKS, null);
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                return 0;
+            }
+            oldest = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+        long end = time.setJulianDay(partitionOf(julianDay(time, oldest)) + PARTITION_DAYS);
+        return db.delete(TABLE_WEEKS, WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(end)});
+    }
+
+    /**
+     * Deletes the whole history.
+     *
+     * @return the number of days and weeks deleted.
+     */
+    static int clear(SQLiteDatabase db) {
+        int deleted = db.delete(TABLE_WEEKS, "1", null);
+        for (int firstDay : queryPartitions(db)) {
+            String partition = partitionName(firstDay);
+            deleted += (int) DatabaseUtils.queryNumEntries(db, partition);
+            db.execSQL("DROP TABLE " + partition);
+        }
+        return deleted;
+    }
+
+    /**
+     * Queries the history of a location, with the columns of {@link HistoryEntry}.  Only the
+     * partitions with days from the start date on are read.
+     *
+     * @param startDate The date the history starts from, 0 for all of it.
+     */
+    static Cursor query(SQLiteDatabase db, String locationSetting, long startDate,
+                        String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        Time time = new Time();
+        StringBuilder rows = new StringBuilder();
+        ArrayList<String> args = new ArrayList<String>();
+        appendRows(rows, args, TABLE_WEEKS, ID_WEEK, HistoryEntry.COLUMN_DAYS, locationSetting,
+                startDate);
+        for (int firstDay : queryPartitions(db)) {
+            if (isInRange(time, firstDay, startDate, Long.MAX_VALUE)) {
+                rows.append(" UNION ALL ");
+                appendRows(rows, args, partitionName(firstDay), ID_DAY,
+                        "1 AS " + HistoryEntry.COLUMN_DAYS, locationSetting, startDate);
+            }
+        }
+
+        StringBuilder history = new StringBuilder("(SELECT ")
+                .append(HistoryEntry._ID)
+                .append(", ").append(WeatherEntry.COLUMN_DATE)
+                .append(", ").append(HistoryEntry.COLUMN_DAYS)
+                .append(", ").append(WeatherEntry.COLUMN_WEATHER_ID)
+                // The description of the row, looked up in the dictionary
+                .append(", (SELECT ").append(WeatherEntry.COLUMN_SHORT_DESC)
+                .append(" FROM ").append(WeatherStorage.TABLE_DESCRIPTION)
+                .append(" WHERE ").append(WeatherStorage.TABLE_DESCRIPTION).append('.')
+                .append(WeatherEntry._ID).append(" = ").append(WeatherStorage.COLUMN_DESC_ID)
+                .append(") AS ").append(WeatherEntry.COLUMN_SHORT_DESC);
+        for (int i = 4; i < DAY_COLUMNS.length; i++) {
+            // min / 100.0 AS min
+            history.append(", ").append(DAY_COLUMNS[i]).append(" / ")
+                    .append(WeatherStorage.FIXED_POINT_SCALE).append(".0 AS ")
+                    .append(DAY_COLUMNS[i]);
+        }
+        history.append(" FROM (").append(rows).append("))");
+
+        if (selectionArgs != null) {
+            args.addAll(Arrays.asList(selectionArgs));
+        }
+        String sql = SQLiteQueryBuilder.buildQueryString(false, history.toString(), projection,
+                selection, null, null,
+                sortOrder != null ? sortOrder : WeatherEntry.COLUMN_DATE + " ASC", null);
+        return db.rawQuery(sql, args.toArray(new String[args.size()]));
+    }
+
+    //SELECT date * 2 + 1 AS _id, date, days, weather_id, desc_id, min, ... FROM weather_weeks
+    //    WHERE location_id = (SELECT _id FROM location WHERE location_setting = ?) AND date >= ?
+    private static void appendRows(StringBuilder rows, ArrayList<String> args, String table,
+                                   int idKind, String daysColumn, String locationSetting,
+                                   long startDate) {
+        rows.append("SELECT ").append(WeatherEntry.COLUMN_DATE).append(" * 2 + ").append(idKind)
+                .append(" AS ").append(HistoryEntry._ID)
+                .append(", ").append(WeatherEntry.COLUMN_DATE)
+                .append(", ").append(daysColumn);
+        for (int i = 2; i < DAY_COLUMNS.length; i++) {
+            rows.append(", ").append(DAY_COLUMNS[i]);
+        }
+        rows.append(" FROM ").append(table)
+                .append(" WHERE ").append(WeatherEntry.COLUMN_LOC_KEY).append(" = (SELECT ")
+                .append(LocationEntry._ID).append(" FROM ").append(LocationEntry.TABLE_NAME)
+                .append(" WHERE ").append(LocationEntry.COLUMN_LOCATION_SETTING).append(" = ?)")
+                .append(" AND ").append(WeatherEntry.COLUMN_DATE).append(" >= ?");
+        args.add(locationSetting);
+        args.add(Long.toString(startDate));
+    }
+
+    // The days of a week of a location, summed up as they are read
+    private static final class Week {
+        final long mLocationId;
+        final int mFirstDay;
+
+        int mDays;
+        long mMin = Long.MAX_VALUE;
+        long mMax = Long.MIN_VALUE;
+        long mHumiditySum;
+        long mPressureSum;
+        long mWindSum;
+        long mMaxWind = Long.MIN_VALUE;
+        long mMaxWindDegrees;
+        long mWindiestDate;
+        // Sum of the min and max of the days, twice the sum of their mean temperatures
+        long mMinMaxSum;
+        int mWetDays;
+
+        // The distinct weathers of the days in the order they came, how many days had each,
+        // and the description each came with first.  The week already summed up, if any, takes
+        // the first one.
+        final int[] mWeatherIds = new int[WEEK_DAYS + 1];
+        final int[] mWeatherDays = new int[WEEK_DAYS + 1];
+        final long[] mDescIds = new long[WEEK_DAYS + 1];
+        int mWeathers;
+
+        Week(long locationId, int firstDay) {
+            mLocationId = locationId;
+            mFirstDay = firstDay;
+        }
+
+        // Adds the day the cursor, over DAY_COLUMNS, is on
+        void add(Cursor day) {
+            mDays++;
+            int weatherId = day.getInt(2);
+            int weather = 0;
+            while (weather < mWeathers && mWeatherIds[weather] != weatherId) {
+                weather++;
+            }
+            if (weather == mWeathers) {
+                mWeatherIds[weather] = weatherId;
+                mDescIds[weather] = day.getLong(3);
+                mWeathers++;
+            }
+            mWeatherDays[weather]++;
+            if (weatherId < AggregateEntry.FIRST_DRY_WEATHER_ID) {
+                mWetDays++;
+            }
+
+            mMin = Math.min(mMin, day.getLong(4));
+            mMax = Math.max(mMax, day.getLong(5));
+            mMinMaxSum += day.getLong(4) + day.getLong(5);
+            mHumiditySum += day.getLong(6);
+            mPressureSum += day.getLong(7);
+            long wind = day.getLong(8);
+            mWindSum += wind;
+            addWind(wind, day.getLong(9), day.getLong(1));
+        }
+
+        // Starts from the week already summed up, if any, so a partition holding more of its
+        // days doesn't replace it.  The weather it had counts for all of its days: the days
+        // added only change it if more of them had another.
+        void addWeek(SQLiteDatabase db, Time time) {
+            Cursor week = db.query(TABLE_WEEKS, WEEK_COLUMNS, WeatherEntry.COLUMN_LOC_KEY +
+                            " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                    new String[]{Long.toString(mLocationId),
+                            Long.toString(time.setJulianDay(mFirstDay))},
+                    null, null, null);
+            try {
+                if (!week.moveToFirst()) {
+                    return;
+                }
+                int days = week.getInt(0);
+                mDays = days;
+                mWeatherIds[0] = week.getInt(1);
+                mDescIds[0] = week.getLong(2);
+                mWeatherDays[0] = days;
+                mWeathers = 1;
+                mMin = week.getLong(3);
+                mMax = week.getLong(4);
+                mHumiditySum = week.getLong(5) * days;
+                mPressureSum = week.getLong(6) * days;
+                mWindSum = week.getLong(7) * days;
+                mMinMaxSum = week.getLong(9) * 2 * days;
+                mWetDays = week.getInt(10);
+                addWind(week.getLong(11), week.getLong(8), week.getLong(12));
+            } finally {
+                week.close();
+            }
+        }
+
+        // The latest of the windiest days, as the aggregates find it
+        private void addWind(long wind, long degrees, long date) {
+            if (wind > mMaxWind || wind == mMaxWind && date > mWindiestDate) {
+                mMaxWind = wind;
+                mMaxWindDegrees = degrees;
+                mWindiestDate = date;
+            }
+        }
+
+        void insert(SQLiteStatement insert, Time time) {
+            // The weather of the most days, the earliest one on a tie
+            int weather = 0;
+            for (int i = 1; i < mWeathers; i++) {
+                if (mWeatherDays[i] > mWeatherDays[weather]) {
+                    weather = i;
+                }
+            }
+            insert.bindLong(1, mLocationId);
+            insert.bindLong(2, time.setJulianDay(mFirstDay));
+            insert.bindLong(3, mDays);
+            insert.bindLong(4, mWeatherIds[weather]);
+            insert.bindLong(5, mDescIds[weather]);
+            insert.bindLong(6, mMin);
+            insert.bindLong(7, mMax);
+            insert.bindLong(8, average(mHumiditySum));
+            insert.bindLong(9, average(mPressureSum));
+            insert.bindLong(10, average(mWindSum));
+            insert.bindLong(11, mMaxWindDegrees);
+            insert.bindLong(12, Math.round((double) mMinMaxSum / (2 * mDays)));
+            insert.bindLong(13, mWetDays);
+            insert.bindLong(14, mMaxWind);
+            insert.bindLong(15, mWindiestDate);
+            insert.executeInsert();
+        }
+
+        private long average(long sum) {
+            return Math.round((double) sum / mDays);
+        }
+    }
+}
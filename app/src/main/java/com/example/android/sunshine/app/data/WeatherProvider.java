@@ -17,25 +17,48 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.text.format.Time;
+import android.util.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private ForecastCache mForecastCache;
+
+    // Notifications held back while the calling thread is in applyBatch
+    private final ThreadLocal<PendingNotifications> mPendingNotifications =
+            new ThreadLocal<PendingNotifications>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_LOCATIONS = 103;
     static final int LOCATION = 300;
+    static final int HISTORY = 400;
+    static final int HISTORY_WITH_LOCATION = 401;
+    static final int AGGREGATE = 500;
+    static final int AGGREGATE_WITH_LOCATION = 501;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // The query builder and the selections are package visible so TestQueryPlans can check
+    // that none of them makes SQLite scan a whole table.
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,26 +75,78 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting ASC, weather.date ASC
+    static final String sLocationSettingAndDateSortOrder =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " ASC, " +
+                    WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    //weather.date < ?
+    static final String sPruneSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
+
+    //location_id = ?
+    static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    // The columns of a stored row, in the order WeatherBatch.add takes them
+    private static final String[] STORED_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    //INSERT INTO weather_data (location_id, date, weather_id, desc_id, ...) VALUES (?, ?, ?, ...)
+    // The UNIQUE (date, location_id) constraint turns this into a replace of the existing row.
+    private static final String sInsertWeatherSql =
+            "INSERT INTO " + WeatherStorage.TABLE_WEATHER_DATA + " (" +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherStorage.COLUMN_DESC_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
+        Cursor cached = mForecastCache.queryFromDate(locationSetting, startDate, projection,
+                sortOrder);
+        if (cached != null) {
+            return cached;
+        }
+
         String[] selectionArgs;
         String selection;
 
@@ -98,6 +173,11 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
+        Cursor cached = mForecastCache.queryDate(locationSetting, date, projection, sortOrder);
+        if (cached != null) {
+            return cached;
+        }
+
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 sLocationSettingAndDaySelection,
@@ -108,6 +188,43 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    //location.location_setting IN (?, ?, ...) AND date >= ? AND date <= ?
+    // One placeholder per location: the query only changes with their number, so SQLite's
+    // statement cache keeps it prepared from one dashboard refresh to the next.
+    static String buildLocationSettingsWithDatesSelection(int locationCount) {
+        StringBuilder selection = new StringBuilder(WeatherContract.LocationEntry.TABLE_NAME)
+                .append(".").append(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                .append(" IN (");
+        for (int i = 0; i < locationCount; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+        }
+        return selection.append(") AND ")
+                .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" >= ? AND ")
+                .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" <= ? ")
+                .toString();
+    }
+
+    private Cursor getWeatherByLocationSettings(Uri uri, String[] projection, String sortOrder) {
+        List<String> locationSettings =
+                WeatherContract.WeatherEntry.getLocationSettingsFromUri(uri);
+        String[] selectionArgs = new String[locationSettings.size() + 2];
+        locationSettings.toArray(selectionArgs);
+        selectionArgs[locationSettings.size()] =
+                Long.toString(WeatherContract.WeatherEntry.getStartDateFromUri(uri));
+        selectionArgs[locationSettings.size() + 1] =
+                Long.toString(WeatherContract.WeatherEntry.getEndDateFromUri(uri));
+
+        // Straight from the database: the forecast cache holds one location at a time
+        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                buildLocationSettingsWithDatesSelection(locationSettings.size()),
+                selectionArgs,
+                null,
+                null,
+                sortOrder != null ? sortOrder : sLocationSettingAndDateSortOrder
+        );
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -129,7 +246,15 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_LOCATIONS, WEATHER_LOCATIONS);
+
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATE, AGGREGATE);
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATE + "/*", AGGREGATE_WITH_LOCATION);
         return matcher;
     }
 
@@ -140,6 +265,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mForecastCache = new ForecastCache(mOpenHelper);
         return true;
     }
 
@@ -161,9 +287,17 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
+            case WEATHER_LOCATIONS:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case AGGREGATE:
+                return WeatherContract.AggregateEntry.CONTENT_TYPE;
+            case AGGREGATE_WITH_LOCATION:
+                return WeatherContract.AggregateEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,6 +309,7 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
+        Uri notificationUri = uri;
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
@@ -187,6 +322,13 @@ public class WeatherProvider extends ContentProvider {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
                 break;
             }
+            // "weather_locations?location=*&location=*&date=*&end_date=*"
+            case WEATHER_LOCATIONS: {
+                retCursor = getWeatherByLocationSettings(uri, projection, sortOrder);
+                // Changes are notified on the URIs of the days, under the weather URI
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                break;
+            }
             // "weather"
             case WEATHER: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
@@ -213,11 +355,34 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = WeatherHistory.query(mOpenHelper.getReadableDatabase(),
+                        WeatherContract.HistoryEntry.getLocationSettingFromUri(uri),
+                        WeatherContract.HistoryEntry.getStartDateFromUri(uri),
+                        projection, selection, selectionArgs, sortOrder);
+                break;
+            }
+            // "aggregate" and "aggregate/*"
+            case AGGREGATE:
+            case AGGREGATE_WITH_LOCATION: {
+                String locationSetting = uri.getPathSegments().size() > 1
+                        ? WeatherContract.AggregateEntry.getLocationSettingFromUri(uri) : null;
+                retCursor = WeatherAggregates.query(mOpenHelper.getReadableDatabase(),
+                        locationSetting,
+                        WeatherContract.AggregateEntry.getStartDateFromUri(uri),
+                        WeatherContract.AggregateEntry.getEndDateFromUri(uri),
+                        projection, sortOrder);
+                // Any day of any location may change them.  Days only move to the history
+                // along with a change of the forecast, which is notified.
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return retCursor;
     }
 
@@ -233,7 +398,7 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id = WeatherStorage.insert(db, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -251,7 +416,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -264,19 +429,28 @@ public class WeatherProvider extends ContentProvider {
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = WeatherStorage.delete(db, selection, selectionArgs);
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HISTORY:
+                // Partitions and all, whatever the selection
+                db.beginTransaction();
+                try {
+                    rowsDeleted = WeatherHistory.clear(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -299,8 +473,7 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                rowsUpdated = WeatherStorage.update(db, values, selection, selectionArgs);
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
@@ -310,7 +483,7 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -321,12 +494,20 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                // Complete weather rows go through the compiled insert, anything else through
+                // the generic one
+                WeatherBatch batch = WeatherBatch.fromContentValues(values);
+                if (batch != null) {
+                    int insertCount = insertWeatherBatch(db, batch);
+                    notifyChange(uri);
+                    return insertCount;
+                }
                 db.beginTransaction();
                 int returnCount = 0;
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = WeatherStorage.insert(db, value);
                         if (_id != -1) {
                             returnCount++;
                         }
@@ -335,13 +516,275 @@ public class WeatherProvider extends ContentProvider {
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        if (WeatherContract.WeatherEntry.METHOD_BULK_INSERT.equals(method)) {
+            int insertCount = insertWeatherBatch(db, WeatherBatch.fromBundle(extras));
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.WeatherEntry.KEY_ROW_COUNT, insertCount);
+            return result;
+        } else if (WeatherContract.WeatherEntry.METHOD_REPLACE_FORECAST.equals(method)) {
+            return replaceForecast(db, WeatherBatch.fromBundle(extras),
+                    extras.getLong(WeatherContract.WeatherEntry.KEY_PRUNE_BEFORE, Long.MIN_VALUE),
+                    !extras.getBoolean(WeatherContract.WeatherEntry.KEY_PARTIAL, false));
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Applies the operations in a single transaction, so a failing operation rolls back the
+     * whole batch, and publishes the change notifications once the transaction has committed,
+     * deduplicated, instead of one per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (mPendingNotifications.get() != null) {
+            // Nested batch, the outer one owns the transaction and the notifications
+            return super.applyBatch(operations);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        PendingNotifications pending = new PendingNotifications();
+        ContentProviderResult[] results;
+        mPendingNotifications.set(pending);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mPendingNotifications.remove();
+        }
+        if (pending.size() > 0) {
+            mForecastCache.invalidate();
+        }
+        pending.publish(getContext().getContentResolver());
+        return results;
+    }
+
+    /**
+     * Drops the cached forecasts and notifies the observers of a change, right away or, within
+     * applyBatch, once the batch has committed.  Every write goes through here once it has
+     * committed.
+     */
+    private void notifyChange(Uri uri) {
+        PendingNotifications pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            mForecastCache.invalidate();
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Writes the rows of the new forecast that differ from the stored ones and moves the
+     * stale rows to the history in one transaction, so observers never see the forecast half
+     * replaced.  Then notifies the URI of every date written or moved, and only those, and the
+     * history if it changed.
+     *
+     * @param pruneBefore Rows dated before this are moved to the history.  Long.MIN_VALUE
+     *                    stands for the first date of the batch.
+     * @param prune       False for a batch that isn't the last of its forecast: nothing is
+     *                    moved to the history, nor compacted.
+     * @return the number of rows written, and their dates.
+     */
+    private Bundle replaceForecast(SQLiteDatabase db, WeatherBatch batch, long pruneBefore,
+                                   boolean prune) {
+        // Compared as they will read once stored, or a value with more decimals than are kept
+        // would always look changed
+        batch = WeatherStorage.toStoredPrecision(batch);
+        Time time = new Time();
+        if (!prune) {
+            pruneBefore = Long.MIN_VALUE;
+        } else if (pruneBefore != Long.MIN_VALUE) {
+            pruneBefore = normalizeDate(time, pruneBefore);
+        } else if (batch.size() > 0) {
+            pruneBefore = Long.MAX_VALUE;
+            for (int i = 0; i < batch.size(); i++) {
+                pruneBefore = Math.min(pruneBefore, normalizeDate(time, batch.getDate(i)));
+            }
+        }
+        // else nothing tells which rows are stale
+
+        WeatherBatch changed = new WeatherBatch(batch.size());
+        PendingNotifications changes = new PendingNotifications();
+        db.beginTransaction();
+        try {
+            WeatherBatch stored = queryStoredForecast(db, batch);
+            LongSparseArray<String> locationSettings = new LongSparseArray<String>();
+            for (int i = 0; i < batch.size(); i++) {
+                long locationId = batch.getLocationId(i);
+                long date = normalizeDate(time, batch.getDate(i));
+                int storedRow = stored.indexOf(locationId, date);
+                if (storedRow != -1 && stored.sameWeather(storedRow, batch, i)) {
+                    continue;
+                }
+                changed.add(batch, i);
+
+                String locationSetting = locationSettings.get(locationId);
+                if (locationSetting == null) {
+                    locationSetting = queryLocationSetting(db, locationId);
+                    locationSettings.put(locationId, locationSetting);
+                }
+                changes.add(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, date));
+            }
+            insertWeatherBatch(db, changed);
+
+            if (pruneBefore != Long.MIN_VALUE) {
+                String[] pruneArgs = new String[]{Long.toString(pruneBefore)};
+                Cursor pruned = sWeatherByLocationSettingQueryBuilder.query(db,
+                        new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                                WeatherContract.WeatherEntry.COLUMN_DATE},
+                        sPruneSelection, pruneArgs, null, null, null);
+                try {
+                    while (pruned.moveToNext()) {
+                        changes.add(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                                pruned.getString(0), pruned.getLong(1)));
+                    }
+                } finally {
+                    pruned.close();
+                }
+                // Past days are kept in the history, which only needs compacting when it
+                // gets new ones
+                if (WeatherHistory.archive(db, pruneBefore) > 0) {
+                    WeatherHistory.compact(db, System.currentTimeMillis(),
+                            WeatherHistory.RETENTION_DAYS, WeatherHistory.ROW_BUDGET);
+                    changes.add(WeatherContract.HistoryEntry.CONTENT_URI);
+                }
+                // Straight from the stored rows, the date is stored as is
+                db.delete(WeatherStorage.TABLE_WEATHER_DATA,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " < ?", pruneArgs);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        for (Uri uri : changes.getUris()) {
+            notifyChange(uri);
+        }
+
+        long[] changedDates = new long[changed.size()];
+        for (int i = 0; i < changedDates.length; i++) {
+            changedDates[i] = normalizeDate(time, changed.getDate(i));
+        }
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.WeatherEntry.KEY_ROW_COUNT, changed.size());
+        result.putLongArray(WeatherContract.WeatherEntry.KEY_CHANGED_DATES, changedDates);
+        return result;
+    }
+
+    /**
+     * @return the stored rows of the locations of the batch.
+     */
+    private static WeatherBatch queryStoredForecast(SQLiteDatabase db, WeatherBatch batch) {
+        WeatherBatch stored = new WeatherBatch(batch.size());
+        LongSparseArray<Boolean> queried = new LongSparseArray<Boolean>();
+        for (int i = 0; i < batch.size(); i++) {
+            long locationId = batch.getLocationId(i);
+            if (queried.get(locationId) != null) {
+                continue;
+            }
+            queried.put(locationId, Boolean.TRUE);
+
+            Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, STORED_COLUMNS,
+                    sLocationIdSelection, new String[]{Long.toString(locationId)},
+                    null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    stored.add(cursor.getLong(0), cursor.getLong(1), cursor.getInt(2),
+                            cursor.getString(3), cursor.getDouble(4), cursor.getDouble(5),
+                            cursor.getDouble(6), cursor.getDouble(7), cursor.getDouble(8),
+                            cursor.getDouble(9));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return stored;
+    }
+
+    private static String queryLocationSetting(SQLiteDatabase db, long locationId) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new android.database.SQLException("Unknown location " + locationId);
+            }
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Inserts a batch of weather rows in a single transaction, through one precompiled
+     * statement that only gets its arguments rebound for every row.  Nests in the caller's
+     * transaction if there is one.
+     *
+     * @return the number of rows inserted.
+     */
+    private int insertWeatherBatch(SQLiteDatabase db, WeatherBatch batch) {
+        int returnCount = 0;
+        // One Time for the whole batch, instead of one per normalized date
+        Time time = new Time();
+        // A forecast only has a few distinct descriptions, each looked up once
+        HashMap<String, Long> descIds = new HashMap<String, Long>();
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(sInsertWeatherSql);
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                String shortDesc = batch.getShortDesc(i);
+                Long descId = descIds.get(shortDesc);
+                if (descId == null) {
+                    descId = WeatherStorage.getDescriptionId(db, shortDesc);
+                    descIds.put(shortDesc, descId);
+                }
+                insert.bindLong(1, batch.getLocationId(i));
+                insert.bindLong(2, normalizeDate(time, batch.getDate(i)));
+                insert.bindLong(3, batch.getWeatherId(i));
+                insert.bindLong(4, descId);
+                insert.bindLong(5, WeatherStorage.toFixedPoint(batch.getMinTemp(i)));
+                insert.bindLong(6, WeatherStorage.toFixedPoint(batch.getMaxTemp(i)));
+                insert.bindLong(7, WeatherStorage.toFixedPoint(batch.getHumidity(i)));
+                insert.bindLong(8, WeatherStorage.toFixedPoint(batch.getPressure(i)));
+                insert.bindLong(9, WeatherStorage.toFixedPoint(batch.getWindSpeed(i)));
+                insert.bindLong(10, WeatherStorage.toFixedPoint(batch.getDegrees(i)));
+                if (insert.executeInsert() != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    // Same as WeatherContract.normalizeDate, reusing the given Time
+    private static long normalizeDate(Time time, long date) {
+        time.set(date);
+        int julianDay = Time.getJulianDay(date, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
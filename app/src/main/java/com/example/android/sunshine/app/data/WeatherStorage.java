@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * How the rows of the weather table are actually stored.  Years of history of many locations
+ * add up, so they are kept compact:
+ * <ul>
+ * <li>The short description, one of a handful repeated over and over, is kept once in a
+ * dictionary table, and rows only hold its key.</li>
+ * <li>Measurements are fixed-point integers, in hundredths, the precision OpenWeatherMap
+ * reports them with.  SQLite stores a temperature, humidity or wind that way in two bytes, and
+ * a pressure in three, where a REAL always takes eight.</li>
+ * </ul>
+ * Nothing else sees this layout.  The weather view presents the rows with the columns of
+ * {@link WeatherEntry}, and every query reads through it.  A view can't be written to, so
+ * inserts, updates and deletes go through the functions here, which take the same columns.
+ */
+final class WeatherStorage {
+
+    static final String TABLE_WEATHER_DATA = "weather_data";
+    static final String TABLE_DESCRIPTION = "weather_description";
+
+    // Key of the short description of a row in the description table
+    static final String COLUMN_DESC_ID = "desc_id";
+
+    // The measurements stored as fixed-point integers, and how many steps a unit is divided into
+    private static final String[] FIXED_POINT_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    static final int FIXED_POINT_SCALE = 100;
+
+    static final String SQL_CREATE_DESCRIPTION_TABLE =
+            "CREATE TABLE " + TABLE_DESCRIPTION + " (" +
+                    WeatherEntry._ID + " INTEGER PRIMARY KEY, " +
+                    WeatherEntry.COLUMN_SHORT_DESC + " TEXT UNIQUE NOT NULL);";
+
+    static final String SQL_CREATE_WEATHER_DATA_TABLE =
+            "CREATE TABLE " + TABLE_WEATHER_DATA + " (" +
+                    // AUTOINCREMENT as in the weather table before: row ids follow the dates
+                    WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                    WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                    WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                    COLUMN_DESC_ID + " INTEGER NOT NULL, " +
+                    WeatherEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                    WeatherEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+                    WeatherEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                    WeatherEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                    WeatherEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                    WeatherEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+                    " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " (" +
+                    WeatherContract.LocationEntry._ID + "), " +
+                    " FOREIGN KEY (" + COLUMN_DESC_ID + ") REFERENCES " +
+                    TABLE_DESCRIPTION + " (" + WeatherEntry._ID + "), " +
+                    // One row per day per location, a new one replaces the old one
+                    " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+    // The rows as the weather table had them, same columns in the same order
+    static final String SQL_CREATE_WEATHER_VIEW =
+            "CREATE VIEW " + WeatherEntry.TABLE_NAME + " AS SELECT " +
+                    storedColumn(WeatherEntry._ID) + ", " +
+                    storedColumn(WeatherEntry.COLUMN_LOC_KEY) + ", " +
+                    storedColumn(WeatherEntry.COLUMN_DATE) + ", " +
+                    TABLE_DESCRIPTION + "." + WeatherEntry.COLUMN_SHORT_DESC + " AS " +
+                    WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    storedColumn(WeatherEntry.COLUMN_WEATHER_ID) + ", " +
+                    storedColumn(WeatherEntry.COLUMN_MIN_TEMP) + ", " +
+                    storedColumn(WeatherEntry.COLUMN_MAX_TEMP) + ", " +
+                    storedColumn(WeatherEntry.COLUMN_HUMIDITY) + ", " +
+                    storedColumn(WeatherEntry.COLUMN_PRESSURE) + ", " +
+                    storedColumn(WeatherEntry.COLUMN_WIND_SPEED) + ", " +
+                    storedColumn(WeatherEntry.COLUMN_DEGREES) +
+                    " FROM " + TABLE_WEATHER_DATA + " INNER JOIN " + TABLE_DESCRIPTION +
+                    " ON " + TABLE_WEATHER_DATA + "." + COLUMN_DESC_ID + " = " +
+                    TABLE_DESCRIPTION + "." + WeatherEntry._ID + ";";
+
+    private WeatherStorage() {
+    }
+
+    // weather_data.min / 100.0 AS min, or weather_data.date AS date
+    private static String storedColumn(String column) {
+        return TABLE_WEATHER_DATA + "." + column +
+                (isFixedPoint(column) ? " / " + FIXED_POINT_SCALE + ".0" : "") + " AS " + column;
+    }
+
+    static boolean isFixedPoint(String column) {
+        for (String fixedPointColumn : FIXED_POINT_COLUMNS) {
+            if (fixedPointColumn.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static long toFixedPoint(double value) {
+        return Math.round(value * FIXED_POINT_SCALE);
+    }
+
+    /**
+     * @return the value as the weather view gives it back once stored.
+     */
+    static double toStoredPrecision(double value) {
+        return toFixedPoint(value) / (double) FIXED_POINT_SCALE;
+    }
+
+    /**
+     * @return the rows of the batch with their values as the weather view gives them back
+     * once stored, so they can be compared with stored rows.
+     */
+    static WeatherBatch toStoredPrecision(WeatherBatch batch) {
+        WeatherBatch stored = new WeatherBatch(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            stored.add(batch.getLocationId(i), batch.getDate(i), batch.getWeatherId(i),
+                    batch.getShortDesc(i),
+                    toStoredPrecision(batch.getMinTemp(i)),
+                    toStoredPrecision(batch.getMaxTemp(i)),
+                    toStoredPrecision(batch.getHumidity(i)),
+                    toStoredPrecision(batch.getPressure(i)),
+                    toStoredPrecision(batch.getWindSpeed(i)),
+                    toStoredPrecision(batch.getDegrees(i)));
+        }
+        return stored;
+    }
+
+    /**
+     * @return the key of a short description in the dictionary, added if it's not there yet.
+     */
+    static long getDescriptionId(SQLiteDatabase db, String shortDesc) {
+        Cursor cursor = db.query(TABLE_DESCRIPTION, new String[]{WeatherEntry._ID},
+                WeatherEntry.COLUMN_SHORT_DESC + " = ?", new String[]{shortDesc},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, shortDesc);
+        long descId = db.insert(TABLE_DESCRIPTION, null, values);
+        if (descId == -1) {
+            throw new SQLException("Failed to add the description " + shortDesc);
+        }
+        return descId;
+    }
+
+    /**
+     * Converts values of the columns of the weather view to the ones of the stored rows.
+     */
+    static ContentValues toStoredValues(SQLiteDatabase db, ContentValues values) {
+        ContentValues stored = new ContentValues(values);
+        if (stored.containsKey(WeatherEntry.COLUMN_SHORT_DESC)) {
+            String shortDesc = stored.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+            stored.remove(WeatherEntry.COLUMN_SHORT_DESC);
+            if (shortDesc != null) {
+                stored.put(COLUMN_DESC_ID, getDescriptionId(db, shortDesc));
+            } else {
+                // Fails the NOT NULL constraint, as it did before
+                stored.putNull(COLUMN_DESC_ID);
+            }
+        }
+        for (String column : FIXED_POINT_COLUMNS) {
+            Double value = stored.getAsDouble(column);
+            if (value != null) {
+                stored.put(column, toFixedPoint(value));
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Inserts a row given with the columns of the weather view.
+     *
+     * @return the row id of the new row, or -1 if it couldn't be inserted.
+     */
+    static long insert(SQLiteDatabase db, ContentValues values) {
+        return db.insert(TABLE_WEATHER_DATA, null, toStoredValues(db, values));
+    }
+
+    /**
+     * Updates the rows matching a selection on the weather view with values given with its
+     * columns.
+     *
+     * @return the number of rows updated.
+     */
+    static int update(SQLiteDatabase db, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        return db.update(TABLE_WEATHER_DATA, toStoredValues(db, values),
+                selectRows(selection), selectionArgs);
+    }
+
+    /**
+     * Deletes the rows matching a selection on the weather view.  Descriptions stay in the
+     * dictionary: there are only so many.
+     *
+     * @return the number of rows deleted.
+     */
+    static int delete(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        return db.delete(TABLE_WEATHER_DATA, selectRows(selection), selectionArgs);
+    }
+
+    // _id IN (SELECT _id FROM weather WHERE <selection>), since the selection may compare the
+    // values of the view, e.g. a short description or a temperature
+    private static String selectRows(String selection) {
+        if (selection == null) {
+            return null;
+        }
+        return WeatherEntry._ID + " IN (SELECT " + WeatherEntry._ID + " FROM " +
+                WeatherEntry.TABLE_NAME + " WHERE " + selection + ")";
+    }
+}
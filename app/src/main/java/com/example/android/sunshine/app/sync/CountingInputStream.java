@@ -0,0 +1,55 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a stream, for {@link SyncMetrics}.
+ */
+class CountingInputStream extends FilterInputStream {
+
+    private long mCount;
+
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * @return the number of bytes read or skipped so far.
+     */
+    long getCount() {
+        return mCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if (read > 0) {
+            mCount += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long skipped = super.skip(count);
+        mCount += skipped;
+        return skipped;
+    }
+
+    // Counting is simpler without having to rewind the count
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
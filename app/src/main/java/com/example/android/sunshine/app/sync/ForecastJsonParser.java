@@ -0,0 +1,288 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Streaming parser for the OpenWeatherMap daily forecast response.
+ *
+ * Instead of buffering the whole payload into a String and building an org.json object tree,
+ * the response is read token by token straight off the connection stream, and every day's
+ * forecast is handed to a {@link Listener} as soon as it has been read.
+ */
+class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_ID = "id";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to check that every field the database needs was present for a given day
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WINDSPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int ALL_DAY_FIELDS = (1 << 8) - 1;
+
+    /**
+     * Receives the parsed forecast.  OWM usually sends the city before the list, but callers
+     * must not rely on that ordering.
+     */
+    interface Listener {
+        void onCity(long cityId, String cityName, double lat, double lon);
+
+        void onDay(int dayIndex, int weatherId, String description, double high, double low,
+                   int humidity, double pressure, double windSpeed, double windDirection);
+    }
+
+    // The values of the day currently being read.  Reused for every element of the list.
+    private int mFields;
+    private int mWeatherId;
+    private String mDescription;
+    private double mHigh;
+    private double mLow;
+    private int mHumidity;
+    private double mPressure;
+    private double mWindSpeed;
+    private double mWindDirection;
+
+    /**
+     * Parses a forecast response, reporting the city and every day to the listener.
+     *
+     * @return the message code sent by the server, {@link HttpURLConnection#HTTP_OK} when absent.
+     * @throws IOException if the stream could not be read.
+     * @throws JSONException if the payload is not a well formed forecast.
+     */
+    int parse(InputStream in, Listener listener) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            int messageCode = readForecast(reader, listener);
+            drain(in);
+            return messageCode;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads whatever follows the forecast, usually just a line break.  A connection is only
+     * kept alive, and reused by the next location's request, once its body has been consumed.
+     */
+    private static void drain(InputStream in) {
+        byte[] buffer = new byte[64];
+        try {
+            while (in.read(buffer) != -1) {
+                // Nothing to do.
+            }
+        } catch (IOException e) {
+            // The connection just won't be reused
+        }
+    }
+
+    private int readForecast(JsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        int messageCode = HttpURLConnection.HTTP_OK;
+        boolean cityFound = false;
+        boolean listFound = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // OWM sends this one either as a number or as a string
+                messageCode = reader.nextInt();
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, listener);
+                cityFound = true;
+            } else if (OWM_LIST.equals(name)) {
+                readDays(reader, listener);
+                listFound = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (messageCode == HttpURLConnection.HTTP_OK && (!cityFound || !listFound)) {
+            throw new JSONException("Forecast without " + (cityFound ? OWM_LIST : OWM_CITY));
+        }
+        return messageCode;
+    }
+
+    private void readCity(JsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        long cityId = -1;
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+        boolean coordFound = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                cityId = reader.nextLong();
+            } else if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                coordFound = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || !coordFound) {
+            throw new JSONException("Incomplete city in forecast");
+        }
+        listener.onCity(cityId, cityName, lat, lon);
+    }
+
+    private void readDays(JsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        int dayIndex = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readDay(reader);
+            if (mFields != ALL_DAY_FIELDS) {
+                throw new JSONException("Incomplete forecast for day " + dayIndex);
+            }
+            listener.onDay(dayIndex, mWeatherId, mDescription, mHigh, mLow, mHumidity,
+                    mPressure, mWindSpeed, mWindDirection);
+            dayIndex++;
+        }
+        reader.endArray();
+    }
+
+    private void readDay(JsonReader reader) throws IOException {
+        mFields = 0;
+        mDescription = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                mPressure = reader.nextDouble();
+                mFields |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                mHumidity = reader.nextInt();
+                mFields |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                mWindSpeed = reader.nextDouble();
+                mFields |= FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                mWindDirection = reader.nextDouble();
+                mFields |= FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                readTemperature(reader);
+            } else if (OWM_WEATHER.equals(name)) {
+                readWeather(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readTemperature(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MAX.equals(name)) {
+                mHigh = reader.nextDouble();
+                mFields |= FIELD_MAX;
+            } else if (OWM_MIN.equals(name)) {
+                mLow = reader.nextDouble();
+                mFields |= FIELD_MIN;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readWeather(JsonReader reader) throws IOException {
+        // Description is in a child array called "weather", which is 1 element long.
+        // That element also contains a weather code.
+        reader.beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            first = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DESCRIPTION.equals(name)) {
+                    mDescription = reader.nextString();
+                    mFields |= FIELD_DESCRIPTION;
+                } else if (OWM_WEATHER_ID.equals(name)) {
+                    mWeatherId = reader.nextInt();
+                    mFields |= FIELD_WEATHER_ID;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Stores the forecast of a location while it's still being read and parsed.  The parser hands
+ * the days over as it reads them, and every {@link #BATCH_SIZE} days are replaced in the
+ * provider on a thread of the given executor, so the sync takes about as long as the network
+ * instead of the network, the parsing and the writes one after the other.
+ *
+ * Every batch is stored with {@link WeatherContract.WeatherEntry#METHOD_REPLACE_FORECAST},
+ * which only writes the days that changed.  The batches before the last one are
+ * {@link WeatherContract.WeatherEntry#KEY_PARTIAL}: only the last one prunes the days before the
+ * first one of the forecast, and archives them, once per forecast.  A day is never half stored,
+ * but readers may see the new days of one batch next to the old days of the next one until the
+ * pipeline is done, and for good if it fails: see {@link #close()}.
+ *
+ * Whatever happens to the fetch, the pipeline must be ended by {@link #finish()} or
+ * {@link #close()}, or its writer waits for the next batch forever.
+ */
+class ForecastPipeline {
+
+    static final int BATCH_SIZE = 7;
+
+    // How far the parser may get ahead of the writes before it waits for them
+    private static final int MAX_PENDING_BATCHES = 4;
+
+    private final Context mContext;
+    private final long mPruneBefore;
+    private final BlockingQueue<Batch> mBatches =
+            new ArrayBlockingQueue<Batch>(MAX_PENDING_BATCHES);
+    private final Future<Void> mWriter;
+
+    // Only touched by the parsing thread
+    private WeatherBatch mPending = new WeatherBatch(BATCH_SIZE);
+    private long mLocationId = -1;
+    private boolean mHandedOver;
+    private boolean mFinished;
+    private boolean mCancelled;
+
+    // Only touched by the writing thread until mWriter is done
+    private int mChangedRows;
+    private long mWriteNanos;
+
+    /**
+     * Starts the writing side of the pipeline.
+     *
+     * @param pruneBefore The first day of the forecast: every stored day before it is pruned.
+     */
+    ForecastPipeline(ExecutorService executor, Context context, long pruneBefore) {
+        mContext = context;
+        mPruneBefore = pruneBefore;
+        mWriter = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                write();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Sets the location the days are stored for.  Days parsed before the location is known are
+     * held back until then.
+     */
+    void setLocationId(long locationId) {
+        mLocationId = locationId;
+        if (mPending.size() >= BATCH_SIZE) {
+            handOver(false);
+        }
+    }
+
+    /**
+     * Adds a day parsed from the forecast, see {@link WeatherBatch#add}.
+     */
+    void add(long date, int weatherId, String shortDesc, double minTemp, double maxTemp,
+             double humidity, double pressure, double windSpeed, double degrees) {
+        mPending.add(mLocationId, date, weatherId, shortDesc, minTemp, maxTemp, humidity,
+                pressure, windSpeed, degrees);
+        if (mPending.size() >= BATCH_SIZE && mLocationId != -1) {
+            handOver(false);
+        }
+    }
+
+    /**
+     * Stores the days still pending and waits for every batch to be stored.
+     *
+     * @return the number of days written, the ones that changed.
+     * @throws InterruptedIOException if the sync was cancelled.
+     */
+    int finish() throws InterruptedIOException {
+        // Even empty, the last batch prunes the stored days
+        handOver(true);
+        if (mCancelled) {
+            mWriter.cancel(true);
+            throw new InterruptedIOException("Sync cancelled while storing the forecast");
+        }
+        try {
+            mWriter.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mWriter.cancel(true);
+            throw new InterruptedIOException("Sync cancelled while storing the forecast");
+        } catch (ExecutionException e) {
+            // The provider failed, as the call would have on this thread
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        mFinished = true;
+        return mChangedRows;
+    }
+
+    /**
+     * Ends the pipeline, cancelling it unless {@link #finish()} returned.  Meant for a finally
+     * block around the fetch, so no exception leaves the writer waiting.
+     *
+     * @return whether it was cancelled after days were handed over to be stored: the stored
+     * forecast may then be partly the new one.
+     */
+    boolean close() {
+        if (mFinished) {
+            return false;
+        }
+        cancel();
+        return mHandedOver;
+    }
+
+    /**
+     * Stops the pipeline, e.g. once the fetch failed.  Batches already stored stay.
+     */
+    void cancel() {
+        mCancelled = true;
+        mWriter.cancel(true);
+    }
+
+    /**
+     * @return how long the writes took, in nanoseconds, once {@link #finish()} returned.
+     */
+    long getWriteNanos() {
+        return mWriteNanos;
+    }
+
+    private void handOver(boolean last) {
+        // The days held back until the location was known were added without it
+        mPending.setLocationId(mLocationId);
+        put(new Batch(mPending, last));
+        mPending = new WeatherBatch(BATCH_SIZE);
+    }
+
+    private void put(Batch batch) {
+        if (mCancelled) {
+            return;
+        }
+        try {
+            mBatches.put(batch);
+            mHandedOver = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mCancelled = true;
+        }
+    }
+
+    private void write() throws InterruptedException {
+        RuntimeException failure = null;
+        Batch batch;
+        do {
+            batch = mBatches.take();
+            // Once a write failed the rest are dropped, but still taken so the parser never
+            // waits on a full queue
+            if (failure != null) {
+                continue;
+            }
+            try {
+                long start = System.nanoTime();
+                Bundle extras = batch.mDays.toBundle();
+                if (batch.mLast) {
+                    extras.putLong(WeatherContract.WeatherEntry.KEY_PRUNE_BEFORE, mPruneBefore);
+                } else {
+                    extras.putBoolean(WeatherContract.WeatherEntry.KEY_PARTIAL, true);
+                }
+                Bundle result = mContext.getContentResolver().call(
+                        WeatherContract.WeatherEntry.CONTENT_URI,
+                        WeatherContract.WeatherEntry.METHOD_REPLACE_FORECAST, null, extras);
+                mChangedRows += result.getInt(WeatherContract.WeatherEntry.KEY_ROW_COUNT);
+                mWriteNanos += System.nanoTime() - start;
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        } while (!batch.mLast);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static final class Batch {
+        final WeatherBatch mDays;
+        final boolean mLast;
+
+        Batch(WeatherBatch days, boolean last) {
+            mDays = days;
+            mLast = last;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Remembers, per location setting, the cache validators the server sent along with the last
+ * forecast we stored, so the next sync can ask for the forecast conditionally.
+ */
+class ForecastValidatorStore {
+
+    private static final String PREFS_NAME = "forecast_validators";
+
+    private static final String KEY_ETAG = "etag:";
+    private static final String KEY_LAST_MODIFIED = "last_modified:";
+
+    private final SharedPreferences mPrefs;
+
+    ForecastValidatorStore(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the ETag of the last stored forecast for the location, or null if there is none.
+     */
+    String getETag(String locationSetting) {
+        return mPrefs.getString(KEY_ETAG + locationSetting, null);
+    }
+
+    /**
+     * @return the Last-Modified header of the last stored forecast for the location, or null if
+     * there is none.
+     */
+    String getLastModified(String locationSetting) {
+        return mPrefs.getString(KEY_LAST_MODIFIED + locationSetting, null);
+    }
+
+    /**
+     * Stores the validators of a forecast that has just been persisted.  Null values remove the
+     * corresponding validator.  This function should not be called from the UI thread because it
+     * uses commit to write to the shared preferences.
+     */
+    void save(String locationSetting, String eTag, String lastModified) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        putOrRemove(editor, KEY_ETAG + locationSetting, eTag);
+        putOrRemove(editor, KEY_LAST_MODIFIED + locationSetting, lastModified);
+        editor.commit();
+    }
+
+    /**
+     * Forgets everything about a location, so the next sync downloads and stores the full
+     * forecast.
+     */
+    void clear(String locationSetting) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        editor.remove(KEY_ETAG + locationSetting);
+        editor.remove(KEY_LAST_MODIFIED + locationSetting);
+        editor.commit();
+    }
+
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, String value) {
+        if (value == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+    }
+}
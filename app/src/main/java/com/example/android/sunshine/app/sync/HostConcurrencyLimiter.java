@@ -0,0 +1,40 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the number of requests in flight to any single host, however many locations are being
+ * synced in parallel.
+ */
+class HostConcurrencyLimiter {
+
+    private final int mMaxPerHost;
+    private final Map<String, Semaphore> mPermits = new HashMap<String, Semaphore>();
+
+    HostConcurrencyLimiter(int maxPerHost) {
+        mMaxPerHost = maxPerHost;
+    }
+
+    /**
+     * Blocks until a request to the host may start.  Every successful call must be paired with
+     * a call to {@link #release(String)}.
+     */
+    void acquire(String host) throws InterruptedException {
+        getPermits(host).acquire();
+    }
+
+    void release(String host) {
+        getPermits(host).release();
+    }
+
+    private synchronized Semaphore getPermits(String host) {
+        Semaphore permits = mPermits.get(host);
+        if (permits == null) {
+            permits = new Semaphore(mMaxPerHost, true);
+            mPermits.put(host, permits);
+        }
+        return permits;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * {@link WeatherSource} backed by the OpenWeatherMap daily forecast API.
+ */
+class OwmWeatherSource implements WeatherSource {
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    private static final String FORECAST_PATH = "forecast/daily";
+    private static final String QUERY_PARAM = "q";
+    private static final String CITY_ID_PARAM = "id";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    // OWM asks clients not to hammer it, whatever the number of locations synced in parallel
+    private static final int MAX_REQUESTS_PER_HOST = 3;
+    private static final HostConcurrencyLimiter sHostLimiter =
+            new HostConcurrencyLimiter(MAX_REQUESTS_PER_HOST);
+
+    private final String mBaseUrl;
+
+    /**
+     * @param baseUrl Base URL of the API, e.g. "http://api.openweathermap.org/data/2.5/".  Pointing
+     *                it to a local server lets the sync run against recorded payloads.
+     */
+    OwmWeatherSource(String baseUrl) {
+        mBaseUrl = baseUrl;
+    }
+
+    OwmWeatherSource() {
+        this(BuildConfig.OPEN_WEATHER_MAP_BASE_URL);
+    }
+
+    @Override
+    public Response fetchForecast(String locationSetting, long cityId, String eTag,
+                                  String lastModified,
+                                  ForecastJsonParser.Listener listener)
+            throws IOException, JSONException {
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        HttpURLConnection urlConnection = null;
+        // Whether the body was read to its end, which hands the connection back to the pool
+        boolean drained = false;
+        String host = null;
+        long start = System.nanoTime();
+
+        try {
+            // Construct the URL for the OpenWeatherMap query.  Once the city id is known it's
+            // preferred to the free text location setting, which OWM has to geocode.
+            Uri.Builder uriBuilder = Uri.parse(mBaseUrl).buildUpon()
+                    .appendEncodedPath(FORECAST_PATH);
+            if (cityId >= 0) {
+                uriBuilder.appendQueryParameter(CITY_ID_PARAM, Long.toString(cityId));
+            } else {
+                uriBuilder.appendQueryParameter(QUERY_PARAM, locationSetting);
+            }
+            Uri builtUri = uriBuilder
+                    .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                    .appendQueryParameter(UNITS_PARAM, UNITS)
+                    .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                    .build();
+
+            URL url = new URL(builtUri.toString());
+            host = url.getHost();
+            try {
+                sHostLimiter.acquire(host);
+            } catch (InterruptedException e) {
+                host = null;
+                throw new InterruptedIOException("Interrupted waiting for " + url.getHost());
+            }
+
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            if (eTag != null) {
+                urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, eTag);
+            }
+            if (lastModified != null) {
+                urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+            urlConnection.connect();
+
+            boolean notModified =
+                    urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+            long connectNanos = System.nanoTime() - start;
+            if (notModified) {
+                return Response.notModified(connectNanos);
+            }
+
+            // Parse the forecast straight off the input stream
+            InputStream inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                throw new IOException("No response body from " + url);
+            }
+            CountingInputStream countingStream = new CountingInputStream(inputStream);
+            int messageCode = new ForecastJsonParser().parse(
+                    new BufferedInputStream(countingStream), listener);
+            drained = true;
+            return new Response(false, messageCode,
+                    urlConnection.getHeaderField(HEADER_ETAG),
+                    urlConnection.getHeaderField(HEADER_LAST_MODIFIED),
+                    connectNanos, countingStream.getCount());
+        } finally {
+            // Disconnecting closes the socket: a connection whose body was read to its end is
+            // left for the next location's request to reuse
+            if (urlConnection != null && !drained) {
+                urlConnection.disconnect();
+            }
+            if (host != null) {
+                sHostLimiter.release(host);
+            }
+        }
+    }
+}
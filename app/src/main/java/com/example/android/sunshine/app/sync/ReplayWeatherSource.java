@@ -0,0 +1,66 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * {@link WeatherSource} replaying forecast payloads recorded from OpenWeatherMap, so the sync
+ * pipeline can be exercised and benchmarked without any network.
+ *
+ * Payloads are read from a fixture directory: "&lt;location setting&gt;.json" when it exists,
+ * "default.json" otherwise.  The last modification time of the file is used as its ETag, so
+ * replaying an untouched fixture goes through the same not modified path as the real API.
+ */
+class ReplayWeatherSource implements WeatherSource {
+
+    private static final String FIXTURE_EXTENSION = ".json";
+    private static final String DEFAULT_FIXTURE = "default" + FIXTURE_EXTENSION;
+
+    private final File mFixtureDir;
+
+    ReplayWeatherSource(File fixtureDir) {
+        mFixtureDir = fixtureDir;
+    }
+
+    @Override
+    public Response fetchForecast(String locationSetting, long cityId, String eTag,
+                                  String lastModified,
+                                  ForecastJsonParser.Listener listener)
+            throws IOException, JSONException {
+        File fixture = getFixture(locationSetting);
+        String fixtureETag = "\"" + fixture.lastModified() + "-" + fixture.length() + "\"";
+        if (fixtureETag.equals(eTag)) {
+            return Response.notModified(0);
+        }
+
+        CountingInputStream countingStream = new CountingInputStream(new FileInputStream(fixture));
+        BufferedInputStream in = new BufferedInputStream(countingStream);
+        try {
+            int messageCode = new ForecastJsonParser().parse(in, listener);
+            return new Response(false, messageCode, fixtureETag, null, 0,
+                    countingStream.getCount());
+        } finally {
+            in.close();
+        }
+    }
+
+    private File getFixture(String locationSetting) throws FileNotFoundException {
+        // Location settings are free text, keep only what is safe in a file name
+        File fixture = new File(mFixtureDir,
+                locationSetting.replaceAll("[^A-Za-z0-9_-]", "_") + FIXTURE_EXTENSION);
+        if (fixture.isFile()) {
+            return fixture;
+        }
+        fixture = new File(mFixtureDir, DEFAULT_FIXTURE);
+        if (fixture.isFile()) {
+            return fixture;
+        }
+        throw new FileNotFoundException("No forecast fixture for " + locationSetting
+                + " in " + mFixtureDir);
+    }
+}
@@ -1,17 +1,30 @@
 package com.example.android.sunshine.app.sync;
 
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.TodaySnapshot;
+import com.example.android.sunshine.app.Utility;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.util.concurrent.TimeUnit;
+
 public class SunshineDataSyncRequestService extends WearableListenerService {
 
     private static final String REQUEST_DATA_SYNC_PATH = "/sunshine-sync-data-request";
     private static final String LOG_TAG = SunshineDataSyncRequestService.class.getSimpleName();
 
+    // How long sending the stored forecast may take before a sync is requested instead
+    private static final long CONNECT_TIMEOUT_SECONDS = 5;
+    private static final long SEND_TIMEOUT_SECONDS = 5;
+
     @Override
     public void onMessageReceived(MessageEvent messageEvent) {
         Log.d(LOG_TAG, "onMessageReceived: " + messageEvent + ", with path: "
@@ -20,6 +33,12 @@ public class SunshineDataSyncRequestService extends WearableListenerService {
         // Check to see if the message is to start a data sync
         if (messageEvent.getPath().equals(SunshineDataSyncRequestService.REQUEST_DATA_SYNC_PATH)) {
 
+            // The watch face just started: send it what is stored when it's recent enough,
+            // instead of waiting for a sync to fetch it again
+            if (sendStoredForecast(getApplicationContext())) {
+                return;
+            }
+
             // Reseting last data sent to watch face, to force data to be sent this time
             SharedPreferences prefs =
                     PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
@@ -35,7 +54,60 @@ public class SunshineDataSyncRequestService extends WearableListenerService {
             editor.putInt(lastWatchFaceWeatherIdKey, -1);
             editor.commit();
 
-            SunshineSyncAdapter.syncImmediately(getApplicationContext());
+            SunshineSyncAdapter.syncImmediately(getApplicationContext(),
+                    SyncRequestCoordinator.REASON_WATCH_REQUEST,
+                    Utility.getPreferredLocation(getApplicationContext()));
+        }
+    }
+
+    /**
+     * Sends today's weather, as stored, to the watch faces.  Messages are received on a
+     * background thread, so this may block on the query and on Google Play services.
+     *
+     * @return whether it was sent, false if the stored forecast is stale, missing, or couldn't be
+     * sent.
+     */
+    private boolean sendStoredForecast(Context context) {
+        if (!SyncRequestCoordinator.get(context).isForecastFresh()) {
+            return false;
+        }
+        TodaySnapshot today = TodaySnapshot.get(context);
+        if (today == null) {
+            return false;
+        }
+
+        SyncMetrics.Sync sync = SyncMetrics.get(context)
+                .startSync(SyncRequestCoordinator.REASON_WATCH_REQUEST);
+        SyncMetrics.Stage stage = sync.start(Utility.getPreferredLocation(context),
+                SyncMetrics.STAGE_WATCH);
+        String outcome = SyncMetrics.OUTCOME_FAILED;
+        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        try {
+            ConnectionResult connectionResult =
+                    googleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!connectionResult.isSuccess()) {
+                Log.e(LOG_TAG, "Google API Client connection failed: " + connectionResult);
+                return false;
+            }
+
+            WatchFaceData watchFaceData = new WatchFaceData(context, today,
+                    WatchFaceData.loadLargeIcon(context, today.getWeatherId()));
+            // Every field: the watch face asking has none yet
+            DataApi.DataItemResult result = Wearable.DataApi.putDataItem(googleApiClient,
+                    watchFaceData.toRequest(context, true))
+                    .await(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            boolean success = result.getStatus().isSuccess();
+            watchFaceData.onSent(context, success);
+            if (success) {
+                outcome = SyncMetrics.OUTCOME_OK;
+            }
+            return success;
+        } finally {
+            googleApiClient.disconnect();
+            stage.finish(outcome);
+            sync.finish(SyncRequestCoordinator.REASON_WATCH_REQUEST);
         }
     }
-}
\ No newline at end of file
+}
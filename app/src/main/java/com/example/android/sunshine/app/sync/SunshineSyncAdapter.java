@@ -2,7 +2,6 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
@@ -17,8 +16,8 @@ import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -29,73 +28,68 @@ import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.TodaySnapshot;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherBatch;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         GoogleApiClient.ConnectionCallbacks,
         GoogleApiClient.OnConnectionFailedListener {
 
-    private static final String WATCH_FACE_DATA_PATH = "/sunshine-watch-face-data";
-    private static final String WATCH_FACE_HIGH_TEMP_KEY = "high-temp";
-    private static final String WATCH_FACE_LOW_TEMP_KEY = "low-temp";
-    private static final String WATCH_FACE_WEATHER_ICON_KEY = "weather-icon";
-    private static final String WATCH_FACE_DATA_TIMESTAMP_KEY = "timestamp";
-
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Interval at which to sync with the weather, in seconds, until the SyncScheduler scales it
+    // after every sync.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    private GoogleApiClient mGoogleApiClient;
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
+    // Locations are synced in parallel, but never more than this many at a time
+    private static final int MAX_PARALLEL_LOCATION_SYNCS = 4;
+    private final ThreadPoolExecutor mLocationSyncExecutor;
+    // Stores the forecasts of the locations being synced while they are parsed, one writer
+    // per location, see ForecastPipeline
+    private final ThreadPoolExecutor mForecastWriteExecutor;
 
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
-    private GoogleApiClient mGoogleApiClient;
+    // Where forecasts are fetched from.  Null means the OpenWeatherMap API; tests and benchmarks
+    // swap in a local source.
+    private static WeatherSource sWeatherSource = null;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -117,6 +111,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 .build();
 
         mGoogleApiClient.connect();
+
+        // Idle threads go away between syncs
+        mLocationSyncExecutor = new ThreadPoolExecutor(MAX_PARALLEL_LOCATION_SYNCS,
+                MAX_PARALLEL_LOCATION_SYNCS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mLocationSyncExecutor.allowCoreThreadTimeOut(true);
+        mForecastWriteExecutor = new ThreadPoolExecutor(MAX_PARALLEL_LOCATION_SYNCS,
+                MAX_PARALLEL_LOCATION_SYNCS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mForecastWriteExecutor.allowCoreThreadTimeOut(true);
     }
 
     @Override
@@ -127,268 +131,388 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             mGoogleApiClient.connect();
         }
 
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        SyncRequestCoordinator coordinator = SyncRequestCoordinator.get(getContext());
+        // The preferred location goes first, followed by the favourites
+        Set<String> locationSettings = new LinkedHashSet<String>();
+        locationSettings.add(Utility.getPreferredLocation(getContext()));
+        locationSettings.addAll(Utility.getFavouriteLocations(getContext()));
+        ForecastSnapshot.deleteAllExcept(getContext(), locationSettings);
+        String reasons = coordinator.onSyncStarted(extras, locationSettings);
+        Log.d(LOG_TAG, "Syncing for " + reasons);
+
+        // Every location is fetched and stored on its own, each in its own transaction, so
+        // they can all be synced in parallel.  The source limits the requests sent to any
+        // single host.
+        final WeatherSource weatherSource = getWeatherSource();
+        final SyncMetrics.Sync sync = SyncMetrics.get(getContext()).startSync(reasons);
+        List<Callable<Void>> locationSyncs = new ArrayList<Callable<Void>>(locationSettings.size());
+        for (final String locationSetting : locationSettings) {
+            locationSyncs.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    syncLocation(weatherSource, locationSetting, sync);
+                    return null;
+                }
+            });
+        }
+        boolean cancelled = false;
+        try {
+            List<Future<Void>> results = mLocationSyncExecutor.invokeAll(locationSyncs);
+            Iterator<String> locationSettingIterator = locationSettings.iterator();
+            for (Future<Void> result : results) {
+                String locationSetting = locationSettingIterator.next();
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    // syncLocation handles the network and the parsing: anything else, e.g. the
+                    // provider failing, ends up here
+                    Throwable cause = e.getCause();
+                    Log.e(LOG_TAG, "Error syncing " + locationSetting, cause);
+                    if (cause instanceof SQLiteException) {
+                        syncResult.databaseError = true;
+                    } else {
+                        syncResult.stats.numIoExceptions++;
+                    }
+                    setLocationStatus(locationSetting, LOCATION_STATUS_UNKNOWN);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled, invokeAll has cancelled the pending locations
+            Log.d(LOG_TAG, "Sync cancelled");
+            cancelled = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            sync.finish(coordinator.onSyncFinished());
+            // A sync cancelled, or where no location got through, says nothing of the weather
+            // nor of the conditions: the periodic sync keeps the interval it has
+            List<SyncMetrics.Record> stages = sync.getStages();
+            if (!cancelled && SyncScheduler.getVolatility(stages) >= 0) {
+                SyncScheduler.get(getContext()).reschedule(stages);
+            }
+        }
+    }
+
+    /**
+     * Helper method to check whether a location is the one the user has chosen in the settings,
+     * as opposed to one of the favourites.
+     */
+    private boolean isPreferredLocation(String locationSetting) {
+        return locationSetting.equals(Utility.getPreferredLocation(getContext()));
+    }
+
+    /**
+     * Lets the coordinator know the forecast of the preferred location is current, which is what
+     * a watch is served from, when the forecast stored didn't change.  Nothing is new for the
+     * widgets and Muzei, but the daily notification may be due, and a watch that asked for data
+     * waits for it.
+     */
+    private void onForecastUnchanged(String locationSetting, SyncMetrics.Sync sync) {
+        if (isPreferredLocation(locationSetting)) {
+            SyncRequestCoordinator.get(getContext()).onForecastFetched();
+            notifyWeather(locationSetting, sync);
+        }
+    }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+    /**
+     * Sets the location status of the preferred location.  The status of the favourites is not
+     * shown anywhere, so it's not kept.
+     */
+    private void setLocationStatus(String locationSetting, @LocationStatus int locationStatus) {
+        if (isPreferredLocation(locationSetting)) {
+            setLocationStatus(getContext(), locationStatus);
+        }
+    }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+    /**
+     * Fetch the forecast of a location from the given source and store the rows we need
+     * to construct the Strings needed for the wireframes.
+     *
+     * The forecast is streamed row by row from the source, so neither the raw response nor a
+     * JSON object tree is ever held in memory.  The request is conditional on the validators of
+     * the stored forecast, and only the parsed rows that differ from the stored ones are written,
+     * so an unchanged forecast is neither stored again nor broadcast.
+     *
+     * Every stage is timed in the given sync of the {@link SyncMetrics}.
+     */
+    private void syncLocation(WeatherSource weatherSource, String locationSetting,
+                              SyncMetrics.Sync sync) {
+        ForecastValidatorStore validatorStore = new ForecastValidatorStore(getContext());
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        // Only ask for a conditional response if we still have the forecast it would
+        // validate, otherwise a 304 would leave us without data.
+        boolean haveForecast = hasForecastForToday(locationSetting);
+        String eTag = haveForecast ? validatorStore.getETag(locationSetting) : null;
+        String lastModified = haveForecast ? validatorStore.getLastModified(locationSetting) : null;
+        long cityId = getCityId(locationSetting);
 
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            if (storeForecast(weatherSource, locationSetting, cityId, eTag, lastModified,
+                    validatorStore, haveForecast, sync)) {
                 return;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            validatorStore.clear(locationSetting);
+        } catch (SocketTimeoutException e) {
+            // Also an InterruptedIOException, but the server's doing
+            Log.e(LOG_TAG, "Error ", e);
+            setLocationStatus(locationSetting, LOCATION_STATUS_SERVER_DOWN);
+        } catch (InterruptedIOException e) {
+            // The system cancelled the sync: nothing says the server is down
+            Log.d(LOG_TAG, "Sync of " + locationSetting + " cancelled");
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            setLocationStatus(locationSetting, LOCATION_STATUS_SERVER_DOWN);
         } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            Log.e(LOG_TAG, "Error parsing the forecast of " + locationSetting, e);
+            setLocationStatus(locationSetting, LOCATION_STATUS_SERVER_INVALID);
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return true if the stored forecast is current, false if the server reported an error.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
+    private boolean storeForecast(WeatherSource weatherSource,
+                                  final String locationSetting,
+                                  long cityId,
+                                  String eTag,
+                                  String lastModified,
+                                  ForecastValidatorStore validatorStore,
+                                  boolean haveForecast,
+                                  final SyncMetrics.Sync sync)
+            throws IOException, JSONException {
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        final int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        final Time utcTime = new Time();
+
+        // Insert the new weather information into the database.  Days are stored as they
+        // are parsed, the whole forecast is kept for the snapshots.
+        final WeatherBatch weatherBatch = new WeatherBatch();
+        final long[] locationId = new long[] {-1};
+        final ForecastPipeline pipeline = new ForecastPipeline(mForecastWriteExecutor,
+                getContext(), utcTime.setJulianDay(julianStartDay));
+
+        // Connecting, reading and parsing: the source times the connection, which is taken out
+        // of the parse stage along with the location looked up in the middle of it
+        final SyncMetrics.Stage parseStage = sync.start(locationSetting, SyncMetrics.STAGE_PARSE);
+        WeatherSource.Response response;
+        int changedRows;
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
+            try {
+                response = weatherSource.fetchForecast(locationSetting,
+                        cityId, eTag, lastModified, new ForecastJsonParser.Listener() {
+                            @Override
+                            public void onCity(long cityId, String cityName, double lat,
+                                               double lon) {
+                                SyncMetrics.Stage locationStage =
+                                        sync.start(locationSetting, SyncMetrics.STAGE_LOCATION);
+                                locationId[0] = addLocation(locationSetting, cityId, cityName,
+                                        lat, lon);
+                                parseStage.exclude(locationStage.finish(SyncMetrics.OUTCOME_OK));
+                                pipeline.setLocationId(locationId[0]);
+                            }
+
+                            @Override
+                            public void onDay(int dayIndex, int weatherId, String description,
+                                              double high, double low, int humidity,
+                                              double pressure, double windSpeed,
+                                              double windDirection) {
+                                // Cheating to convert this to UTC time, which is what we want
+                                // anyhow
+                                long dateTime = utcTime.setJulianDay(julianStartDay + dayIndex);
+
+                                // The location is set once the whole forecast has been read
+                                weatherBatch.add(-1, dateTime, weatherId, description, low, high,
+                                        humidity, pressure, windSpeed, windDirection);
+                                pipeline.add(dateTime, weatherId, description, low, high,
+                                        humidity, pressure, windSpeed, windDirection);
+                            }
+                        });
+            } catch (IOException | JSONException | RuntimeException e) {
+                // Where it failed isn't known: the whole fetch goes to the parse stage
+                parseStage.finish(SyncMetrics.OUTCOME_FAILED);
+                throw e;
+            }
+            parseStage.exclude(response.getConnectNanos());
+
+            if (response.isNotModified()) {
+                // What we have stored is still current, so there is nothing to store or
+                // broadcast.
+                Log.d(LOG_TAG, "Sync Complete. Forecast not modified");
+                sync.record(locationSetting, SyncMetrics.STAGE_CONNECT,
+                        response.getConnectNanos(), SyncMetrics.OUTCOME_NOT_MODIFIED);
+                setLocationStatus(locationSetting, LOCATION_STATUS_OK);
+                onForecastUnchanged(locationSetting, sync);
+                return true;
+            }
+            sync.record(locationSetting, SyncMetrics.STAGE_CONNECT, response.getConnectNanos(),
+                    SyncMetrics.OUTCOME_OK);
 
             // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+            parseStage.setBytes(response.getBytesRead()).setRows(weatherBatch.size());
+            switch (response.getMessageCode()) {
+                case HttpURLConnection.HTTP_OK:
+                    parseStage.finish(SyncMetrics.OUTCOME_OK);
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    parseStage.finish(SyncMetrics.OUTCOME_SERVER_ERROR);
+                    setLocationStatus(locationSetting, LOCATION_STATUS_INVALID);
+                    return false;
+                default:
+                    parseStage.finish(SyncMetrics.OUTCOME_SERVER_ERROR);
+                    setLocationStatus(locationSetting, LOCATION_STATUS_SERVER_DOWN);
+                    return false;
             }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
+            // Most of the forecast is stored by now: only the last batch is left
+            changedRows = pipeline.finish();
+        } finally {
+            // Never leaves the writer waiting.  Once some of the days are written, the
+            // validators describe the forecast stored no longer: the next sync fetches and
+            // compares the whole forecast again.
+            if (pipeline.close()) {
+                validatorStore.clear(locationSetting);
+            }
+        }
+        sync.record(locationSetting, SyncMetrics.STAGE_STORE, pipeline.getWriteNanos(),
+                changedRows, changedRows > 0 ? SyncMetrics.OUTCOME_OK
+                        : SyncMetrics.OUTCOME_UNCHANGED);
+        Log.d(LOG_TAG, changedRows + " days changed for " + locationSetting);
+
+        // The city may come after the list, so the location key is only set once everything
+        // has been read
+        weatherBatch.setLocationId(locationId[0]);
+        // The snapshots show the values the provider gives back, as the detail view does
+        WeatherBatch storedDays = weatherBatch.toStoredPrecision();
+
+        if (haveForecast && changedRows == 0) {
+            // Same rows as the ones already stored, which the pipeline didn't write again:
+            // publishing them would only wake up every reader for nothing.
+            Log.d(LOG_TAG, "Sync Complete. Forecast unchanged");
+            validatorStore.save(locationSetting, response.getETag(), response.getLastModified());
+            if (!ForecastSnapshot.exists(getContext(), locationSetting)) {
+                SyncMetrics.Stage snapshotStage =
+                        sync.start(locationSetting, SyncMetrics.STAGE_SNAPSHOT);
+                publishSnapshot(locationSetting, storedDays);
+                snapshotStage.setRows(storedDays.size()).finish(SyncMetrics.OUTCOME_OK);
+            }
+            setLocationStatus(locationSetting, LOCATION_STATUS_OK);
+            onForecastUnchanged(locationSetting, sync);
+            return true;
+        }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+        if ( weatherBatch.size() > 0 ) {
+            validatorStore.save(locationSetting, response.getETag(), response.getLastModified());
+
+            SyncMetrics.Stage snapshotStage =
+                    sync.start(locationSetting, SyncMetrics.STAGE_SNAPSHOT);
+            publishSnapshot(locationSetting, storedDays);
+            boolean preferredLocation = isPreferredLocation(locationSetting);
+            if (preferredLocation) {
+                // The first day is today: everything the fan-out shows is read from this
+                TodaySnapshot.update(getContext(), locationSetting, storedDays.getDate(0),
+                        storedDays.getWeatherId(0), storedDays.getShortDesc(0),
+                        storedDays.getMaxTemp(0), storedDays.getMinTemp(0));
+            }
+            snapshotStage.setRows(storedDays.size()).finish(SyncMetrics.OUTCOME_OK);
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+            // Widgets, Muzei, the notification and the watch face only show the preferred
+            // location
+            if (preferredLocation) {
+                fanOut(locationSetting, sync);
+            }
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + weatherBatch.size() + " Inserted");
+        setLocationStatus(locationSetting, LOCATION_STATUS_OK);
+        if (isPreferredLocation(locationSetting)) {
+            SyncRequestCoordinator.get(getContext()).onForecastFetched();
+        }
+        return weatherBatch.size() > 0;
+    }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+    /**
+     * Lets the widgets, Muzei, the notification and the watch face know about the new forecast
+     * of the preferred location, each a stage of its own.
+     */
+    private void fanOut(String locationSetting, SyncMetrics.Sync sync) {
+        SyncMetrics.Stage stage = sync.start(locationSetting, SyncMetrics.STAGE_WIDGETS);
+        updateWidgets();
+        stage.finish(SyncMetrics.OUTCOME_OK);
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        stage = sync.start(locationSetting, SyncMetrics.STAGE_MUZEI);
+        updateMuzei();
+        stage.finish(SyncMetrics.OUTCOME_OK);
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+        notifyWeather(locationSetting, sync);
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * Shows the notification if it's due, and sends the watch face what changed since it was
+     * last sent, a stage of its own.
+     */
+    private void notifyWeather(String locationSetting, SyncMetrics.Sync sync) {
+        // The watch face data is sent asynchronously, only handing it over is timed
+        SyncMetrics.Stage stage = sync.start(locationSetting, SyncMetrics.STAGE_NOTIFICATION);
+        notifyWeatherAndSendWatchFaceData();
+        stage.finish(SyncMetrics.OUTCOME_OK);
+    }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+    /**
+     * Publishes the forecast just stored for the readers that map it, see
+     * {@link ForecastSnapshot}.  They query the provider when it's missing, so failing to write
+     * it is no reason to fail the sync.
+     */
+    private void publishSnapshot(String locationSetting, WeatherBatch weatherBatch) {
+        try {
+            ForecastSnapshot.publish(getContext(), locationSetting, weatherBatch,
+                    System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error publishing the forecast of " + locationSetting, e);
+        }
+    }
 
-                cVVector.add(weatherValues);
-            }
+    /**
+     * Replaces the source forecasts are fetched from, e.g. with a {@link ReplayWeatherSource} or
+     * an {@link OwmWeatherSource} pointing to a local server.  Passing null restores the
+     * OpenWeatherMap API.  Only meant for tests and benchmarks.
+     */
+    static void setWeatherSource(WeatherSource weatherSource) {
+        sWeatherSource = weatherSource;
+    }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeatherAndSendWatchFaceData();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+    private static WeatherSource getWeatherSource() {
+        WeatherSource weatherSource = sWeatherSource;
+        return weatherSource != null ? weatherSource : new OwmWeatherSource();
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * Helper method to check whether the database already holds today's forecast for a location.
+     */
+    private boolean hasForecastForToday(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = getContext().getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (cursor == null) {
+            return false;
         }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
     }
 
     private void updateWidgets() {
@@ -419,12 +543,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
         String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
         String lastNotificationKey = context.getString(R.string.pref_last_notification);
-        final String lastWatchFaceHighTempKey =
-                context.getString(R.string.pref_last_watch_face_high_temp_key);
-        final String lastWatchFaceLowTempKey =
-                context.getString(R.string.pref_last_watch_face_low_temp_key);
-        final String lastWatchFaceWeatherIdKey =
-                context.getString(R.string.pref_last_watch_face_weather_id_key);
 
         boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
                 Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
@@ -432,70 +550,26 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         displayNotifications = displayNotifications
                 && (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS);
 
-        String lastWatchFaceHighTemp = prefs.getString(lastWatchFaceHighTempKey, "");
-        String lastWatchFaceLowTemp = prefs.getString(lastWatchFaceLowTempKey, "");
-        int lastWatchFaceWeatherId = prefs.getInt(lastWatchFaceWeatherIdKey, -1);
-
-        // Retrieve needed data
-        String locationQuery = Utility.getPreferredLocation(context);
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-        // we'll query our contentProvider, as always
-        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-        String desc = null;
-        int iconId = -1;
-        int weatherId = -1;
-        double high = -1;
-        double low = -1;
-        Bitmap largeIcon = null;
-        boolean retrievedData = Boolean.FALSE;
-        if (cursor.moveToFirst()) {
-            retrievedData = Boolean.TRUE;
-            weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            high = cursor.getDouble(INDEX_MAX_TEMP);
-            low = cursor.getDouble(INDEX_MIN_TEMP);
-            desc = cursor.getString(INDEX_SHORT_DESC);
-
-            iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-            int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-            String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-            // On Honeycomb and higher devices, we can retrieve the size of the large icon
-            // Prior to that, we use a fixed size
-            @SuppressLint("InlinedApi")
-            int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                    ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                    : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-            @SuppressLint("InlinedApi")
-            int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                    ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                    : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-            // Retrieve the large icon
-            try {
-                largeIcon = Glide.with(context)
-                        .load(artUrl)
-                        .asBitmap()
-                        .error(artResourceId)
-                        .fitCenter()
-                        .into(largeIconWidth, largeIconHeight).get();
-            } catch (InterruptedException | ExecutionException e) {
-                Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-            }
+        // Retrieve needed data, already formatted by the sync
+        TodaySnapshot today = TodaySnapshot.get(context);
+        if (today == null) {
+            return;
         }
-        cursor.close();
+        boolean isMetric = Utility.isMetric(context);
+        int weatherId = today.getWeatherId();
+        int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+        Bitmap largeIcon = WatchFaceData.loadLargeIcon(context, weatherId);
 
-        if ((displayNotifications) && (retrievedData)) {
+        if (displayNotifications) {
 
             // Last sync was more than 1 day ago, let's send a notification with the weather.
             String title = context.getString(R.string.app_name);
 
             // Define the text of the forecast.
             String contentText = String.format(context.getString(R.string.format_notification),
-                    desc,
-                    Utility.formatTemperature(context, high),
-                    Utility.formatTemperature(context, low));
+                    today.getDescription(),
+                    today.getFormattedHigh(isMetric),
+                    today.getFormattedLow(isMetric));
 
             // NotificationCompatBuilder is a very convenient way to build backward-compatible
             // notifications.  Just throw in some data.
@@ -537,53 +611,19 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         }
 
         // Send (if needed) watch face data
-        final String watchFaceHighTempText = Utility.formatTemperature(context, high);
-        final String watchFaceLowTempText = Utility.formatTemperature(context, low);
-        final int watchFaceWeatherId = weatherId;
-
-        boolean sendWatchFaceData = ((!lastWatchFaceHighTemp.equals(watchFaceHighTempText))
-                || (!lastWatchFaceLowTemp.equals(watchFaceLowTempText))
-                || (lastWatchFaceWeatherId!=watchFaceWeatherId));
-        if ((sendWatchFaceData) && (retrievedData) && (mGoogleApiClient.isConnected())) {
-
-            PutDataMapRequest dataMap = PutDataMapRequest
-                    .create(SunshineSyncAdapter.WATCH_FACE_DATA_PATH);
-
-            if (!lastWatchFaceHighTemp.equals(watchFaceHighTempText)) {
-                dataMap.getDataMap().putString(SunshineSyncAdapter.WATCH_FACE_HIGH_TEMP_KEY,
-                        watchFaceHighTempText);
+        if (mGoogleApiClient.isConnected()) {
+            final WatchFaceData watchFaceData = new WatchFaceData(context, today, largeIcon);
+            PutDataRequest request = watchFaceData.toRequest(context, false);
+            if (request != null) {
+                Wearable.DataApi.putDataItem(mGoogleApiClient, request)
+                        .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                            @Override
+                            public void onResult(DataApi.DataItemResult dataItemResult) {
+                                watchFaceData.onSent(context,
+                                        dataItemResult.getStatus().isSuccess());
+                            }
+                        });
             }
-            if (!lastWatchFaceLowTemp.equals(watchFaceLowTempText)) {
-                dataMap.getDataMap().putString(SunshineSyncAdapter.WATCH_FACE_LOW_TEMP_KEY,
-                        watchFaceLowTempText);
-            }
-            if (lastWatchFaceWeatherId!=watchFaceWeatherId) {
-                dataMap.getDataMap().putAsset(SunshineSyncAdapter.WATCH_FACE_WEATHER_ICON_KEY,
-                        toAsset(largeIcon));
-            }
-            dataMap.getDataMap().putLong(SunshineSyncAdapter.WATCH_FACE_DATA_TIMESTAMP_KEY,
-                    System.currentTimeMillis());
-
-            PutDataRequest request = dataMap.asPutDataRequest();
-            request.setUrgent();
-
-            Wearable.DataApi.putDataItem(mGoogleApiClient, request)
-                    .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                        @Override
-                        public void onResult(DataApi.DataItemResult dataItemResult) {
-                            Log.d(LOG_TAG, "Sending data (" + watchFaceHighTempText + " - "
-                                    + watchFaceLowTempText + " - " + watchFaceWeatherId
-                                    + ") was successful: "
-                                    + dataItemResult.getStatus().isSuccess());
-
-                            // Refreshing last data sent to watch face
-                            SharedPreferences.Editor editor = prefs.edit();
-                            editor.putString(lastWatchFaceHighTempKey, watchFaceHighTempText);
-                            editor.putString(lastWatchFaceLowTempKey, watchFaceLowTempText);
-                            editor.putInt(lastWatchFaceWeatherIdKey, watchFaceWeatherId);
-                            editor.commit();
-                        }
-                    });
         }
     }
 
@@ -591,18 +631,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
      * Helper method to handle insertion of a new location in the weather database.
      *
      * @param locationSetting The location string used to request updates from the server.
+     * @param cityId The id of the city on the server, or -1 if it wasn't sent
      * @param cityName A human-readable city name, e.g "Mountain View"
      * @param lat the latitude of the city
      * @param lon the longitude of the city
      * @return the row ID of the added location.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
+    long addLocation(String locationSetting, long cityId, String cityName, double lat, double lon) {
         long locationId;
 
         // First, check if the location with this city name exists in the db
         Cursor locationCursor = getContext().getContentResolver().query(
                 WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_CITY_ID},
                 WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
                 new String[]{locationSetting},
                 null);
@@ -610,6 +652,18 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         if (locationCursor.moveToFirst()) {
             int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
             locationId = locationCursor.getLong(locationIdIndex);
+
+            // Cache the city id for the next syncs if we didn't have it yet
+            int cityIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+            if (cityId >= 0 && locationCursor.isNull(cityIdIndex)) {
+                ContentValues cityIdValues = new ContentValues();
+                cityIdValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+                getContext().getContentResolver().update(
+                        WeatherContract.LocationEntry.CONTENT_URI,
+                        cityIdValues,
+                        WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationId)});
+            }
         } else {
             // Now that the content provider is set up, inserting rows of data is pretty simple.
             // First create a ContentValues object to hold the data you want to insert.
@@ -621,6 +675,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+            if (cityId >= 0) {
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+            }
 
             // Finally, insert location data into the database.
             Uri insertedUri = getContext().getContentResolver().insert(
@@ -637,6 +694,30 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         return locationId;
     }
 
+    /**
+     * Helper method to get the OpenWeatherMap city id cached for a location.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @return the city id, or -1 if the location hasn't been synced yet.
+     */
+    private long getCityId(String locationSetting) {
+        Cursor locationCursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_CITY_ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (locationCursor == null) {
+            return -1;
+        }
+        long cityId = -1;
+        if (locationCursor.moveToFirst() && !locationCursor.isNull(0)) {
+            cityId = locationCursor.getLong(0);
+        }
+        locationCursor.close();
+        return cityId;
+    }
+
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -657,11 +738,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately, unless the request can be merged
+     * with a sync already requested or running, or served from what is stored, see
+     * {@link SyncRequestCoordinator}.
      * @param context The context used to access the account service
+     * @param reason Why the sync is needed, one of the REASON_ constants of
+     *               {@link SyncRequestCoordinator}
+     * @param locationSetting The location the sync is needed for, or null for all of them
      */
-    public static void syncImmediately(Context context) {
-        Bundle bundle = new Bundle();
+    public static void syncImmediately(Context context, String reason, String locationSetting) {
+        SyncRequestCoordinator.get(context).requestSync(reason, locationSetting);
+    }
+
+    /**
+     * Helper method to request a sync from the sync framework right away
+     * @param context The context used to access the account service
+     * @param extras The extras of the sync
+     */
+    static void requestExpeditedSync(Context context, Bundle extras) {
+        Bundle bundle = new Bundle(extras);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
         ContentResolver.requestSync(getSyncAccount(context),
@@ -721,7 +816,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         /*
          * Finally, let's do a sync to get things started
          */
-        syncImmediately(context);
+        syncImmediately(context, SyncRequestCoordinator.REASON_ACCOUNT_CREATED, null);
     }
 
     public static void initializeSyncAdapter(Context context) {
@@ -741,26 +836,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         spe.commit();
     }
 
-    /**
-     * Builds an {@link com.google.android.gms.wearable.Asset} from a bitmap.
-     */
-    private static Asset toAsset(Bitmap bitmap) {
-        ByteArrayOutputStream byteStream = null;
-        try {
-            byteStream = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-            return Asset.createFromBytes(byteStream.toByteArray());
-        } finally {
-            if (null != byteStream) {
-                try {
-                    byteStream.close();
-                } catch (IOException e) {
-                    // ignore
-                }
-            }
-        }
-    }
-
     @Override
     public void onConnected(Bundle connectionHint) {
         Log.d(LOG_TAG, "Google API Client was connected");
@@ -0,0 +1,402 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records how long every stage of every sync took, what it moved and how it ended, so a slow
+ * sync can be told apart as network, parsing, SQLite or fan-out.
+ *
+ * The last {@link #CAPACITY} stages are kept in a ring buffer, saved after every sync to a
+ * tab-separated file in the app's files directory, see {@link #getFile}.  That file is the
+ * export: one stage per line, under a header naming the columns.
+ */
+public final class SyncMetrics {
+
+    private static final String LOG_TAG = SyncMetrics.class.getSimpleName();
+
+    // The stages of the sync of a location, in the order they run
+    // Building the URL and connecting, up to the response code
+    public static final String STAGE_CONNECT = "connect";
+    // Reading the response and parsing it, streamed together
+    public static final String STAGE_PARSE = "parse";
+    // Looking up or adding the location, while the response is parsed
+    public static final String STAGE_LOCATION = "location";
+    // Replacing the stored forecast, batch by batch while the response is parsed: the time
+    // spent writing, not the time the stage lasted
+    public static final String STAGE_STORE = "store";
+    // Publishing the forecast and today's weather to the files their readers map
+    public static final String STAGE_SNAPSHOT = "snapshot";
+    // Fan-out, for the preferred location only
+    public static final String STAGE_WIDGETS = "widgets";
+    public static final String STAGE_MUZEI = "muzei";
+    // The notification, and the watch face data handed over to Google Play services
+    public static final String STAGE_NOTIFICATION = "notification";
+    // Sending the stored forecast to a watch that asked for it, without a sync
+    public static final String STAGE_WATCH = "watch";
+
+    public static final String OUTCOME_OK = "ok";
+    // The server answered with a 304: nothing was parsed or stored
+    public static final String OUTCOME_NOT_MODIFIED = "not_modified";
+    // The parsed rows were the ones already stored: none was written
+    public static final String OUTCOME_UNCHANGED = "unchanged";
+    // The server answered with an error code
+    public static final String OUTCOME_SERVER_ERROR = "server_error";
+    // An exception ended the stage, and the sync of the location
+    public static final String OUTCOME_FAILED = "failed";
+
+    static final int CAPACITY = 512;
+
+    private static final String FILE_NAME = "sync_metrics.tsv";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String SEPARATOR = "\t";
+    private static final String HEADER = "sync_time" + SEPARATOR + "location" + SEPARATOR +
+            "stage" + SEPARATOR + "duration_us" + SEPARATOR + "bytes" + SEPARATOR + "rows" +
+            SEPARATOR + "outcome" + SEPARATOR + "reasons";
+
+    private static SyncMetrics sInstance;
+
+    private final File mFile;
+    // The oldest record is at mNext once the buffer is full
+    private final Record[] mRecords = new Record[CAPACITY];
+    private int mNext;
+    private int mCount;
+
+    private SyncMetrics(File file) {
+        mFile = file;
+    }
+
+    /**
+     * @return the metrics of the app, loaded from their file the first time.
+     */
+    public static synchronized SyncMetrics get(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncMetrics(getFile(context));
+            sInstance.load();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the file the metrics are saved to after every sync.
+     */
+    public static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Starts recording a sync.  Its stages are only added to the buffer, and saved, once
+     * {@link Sync#finish(String)} is called.
+     *
+     * @param reasons Why the sync runs as it starts, see {@link SyncRequestCoordinator}.
+     */
+    Sync startSync(String reasons) {
+        return new Sync(System.currentTimeMillis(), reasons);
+    }
+
+    /**
+     * @return the recorded stages, oldest first.
+     */
+    public synchronized List<Record> getRecords() {
+        List<Record> records = new ArrayList<Record>(mCount);
+        int first = mCount < CAPACITY ? 0 : mNext;
+        for (int i = 0; i < mCount; i++) {
+            records.add(mRecords[(first + i) % CAPACITY]);
+        }
+        return records;
+    }
+
+    /**
+     * Writes the recorded stages, oldest first, as the file they are saved to.
+     */
+    public void export(Writer writer) throws IOException {
+        writer.write(HEADER);
+        writer.write('\n');
+        for (Record record : getRecords()) {
+            writer.write(record.toLine());
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    private synchronized void add(List<Record> records) {
+        for (Record record : records) {
+            mRecords[mNext] = record;
+            mNext = (mNext + 1) % CAPACITY;
+            mCount = Math.min(mCount + 1, CAPACITY);
+        }
+    }
+
+    private void load() {
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(mFile), "UTF-8"));
+        } catch (FileNotFoundException e) {
+            // No sync yet
+            return;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading " + mFile, e);
+            return;
+        }
+        List<Record> records = new ArrayList<Record>();
+        try {
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                Record record = Record.fromLine(line);
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading " + mFile, e);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        add(records);
+    }
+
+    // Written to a temporary file renamed over the old one, so a crash never leaves half of it
+    private synchronized void save() {
+        File tempFile = new File(mFile.getParentFile(), mFile.getName() + TEMP_FILE_SUFFIX);
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+            try {
+                export(writer);
+            } finally {
+                writer.close();
+            }
+            if (!tempFile.renameTo(mFile)) {
+                throw new IOException("Can't replace " + mFile);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error saving the sync metrics", e);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * The stages of one sync.  Locations are synced in parallel, so stages may be recorded from
+     * several threads at once.
+     */
+    final class Sync {
+        private final long mTime;
+        private final String mReasons;
+        private final List<Record> mStages = new ArrayList<Record>();
+
+        private Sync(long time, String reasons) {
+            mTime = time;
+            mReasons = reasons;
+        }
+
+        /**
+         * Starts timing a stage of the sync of a location.
+         */
+        Stage start(String locationSetting, String stage) {
+            return new Stage(this, locationSetting, stage);
+        }
+
+        /**
+         * Records a stage timed somewhere else, e.g. by the {@link WeatherSource}.
+         */
+        void record(String locationSetting, String stage, long nanos, String outcome) {
+            record(locationSetting, stage, nanos, 0, outcome);
+        }
+
+        void record(String locationSetting, String stage, long nanos, int rows,
+                    String outcome) {
+            add(new Record(mTime, locationSetting, stage, nanos / 1000, 0, rows, outcome,
+                    mReasons));
+        }
+
+        private synchronized void add(Record record) {
+            mStages.add(record);
+        }
+
+        /**
+         * @return the stages recorded so far.
+         */
+        synchronized List<Record> getStages() {
+            return new ArrayList<Record>(mStages);
+        }
+
+        /**
+         * Adds the stages of the sync to the buffer and saves it.
+         *
+         * @param reasons Why the sync ran, those of the requests merged while it ran included.
+         */
+        void finish(String reasons) {
+            List<Record> stages;
+            synchronized (this) {
+                for (int i = 0; i < mStages.size(); i++) {
+                    mStages.set(i, mStages.get(i).withReasons(reasons));
+                }
+                stages = getStages();
+            }
+            for (Record stage : stages) {
+                Log.d(LOG_TAG, stage.toLine());
+            }
+            // add(Record) of this class hides the one of the metrics
+            SyncMetrics.this.add(stages);
+            save();
+        }
+    }
+
+    /**
+     * A stage being timed.
+     */
+    static final class Stage {
+        private final Sync mSync;
+        private final String mLocationSetting;
+        private final String mName;
+        private final long mStartNanos = System.nanoTime();
+        // Time spent in other stages while this one runs, e.g. the location looked up while
+        // the response is parsed
+        private long mExcludedNanos;
+        private long mBytes;
+        private int mRows;
+
+        private Stage(Sync sync, String locationSetting, String name) {
+            mSync = sync;
+            mLocationSetting = locationSetting;
+            mName = name;
+        }
+
+        Stage setBytes(long bytes) {
+            mBytes = bytes;
+            return this;
+        }
+
+        Stage setRows(int rows) {
+            mRows = rows;
+            return this;
+        }
+
+        /**
+         * Leaves the time of a stage nested in this one out of this one's.
+         */
+        void exclude(long nanos) {
+            mExcludedNanos += nanos;
+        }
+
+        /**
+         * Records the stage.
+         *
+         * @return how long the stage took, in nanoseconds.
+         */
+        long finish(String outcome) {
+            long nanos = System.nanoTime() - mStartNanos - mExcludedNanos;
+            mSync.add(new Record(mSync.mTime, mLocationSetting, mName, nanos / 1000, mBytes,
+                    mRows, outcome, mSync.mReasons));
+            return nanos;
+        }
+    }
+
+    /**
+     * A recorded stage.
+     */
+    public static final class Record {
+        private final long mSyncTime;
+        private final String mLocationSetting;
+        private final String mStage;
+        private final long mDurationMicros;
+        private final long mBytes;
+        private final int mRows;
+        private final String mOutcome;
+        private final String mReasons;
+
+        Record(long syncTime, String locationSetting, String stage, long durationMicros,
+               long bytes, int rows, String outcome, String reasons) {
+            mSyncTime = syncTime;
+            mLocationSetting = locationSetting;
+            mStage = stage;
+            mDurationMicros = durationMicros;
+            mBytes = bytes;
+            mRows = rows;
+            mOutcome = outcome;
+            mReasons = reasons;
+        }
+
+        /**
+         * @return when the sync the stage is part of started, in milliseconds.
+         */
+        public long getSyncTime() {
+            return mSyncTime;
+        }
+
+        public String getLocationSetting() {
+            return mLocationSetting;
+        }
+
+        public String getStage() {
+            return mStage;
+        }
+
+        public long getDurationMicros() {
+            return mDurationMicros;
+        }
+
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public int getRows() {
+            return mRows;
+        }
+
+        public String getOutcome() {
+            return mOutcome;
+        }
+
+        /**
+         * @return why the sync the stage is part of ran, see {@link SyncRequestCoordinator}.
+         */
+        public String getReasons() {
+            return mReasons;
+        }
+
+        private Record withReasons(String reasons) {
+            return new Record(mSyncTime, mLocationSetting, mStage, mDurationMicros, mBytes,
+                    mRows, mOutcome, reasons);
+        }
+
+        private String toLine() {
+            // Location settings are free text: a tab would split the fields, a line break the
+            // record
+            return mSyncTime + SEPARATOR + mLocationSetting.replaceAll("[\\t\\r\\n]", " ") +
+                    SEPARATOR + mStage + SEPARATOR + mDurationMicros + SEPARATOR + mBytes +
+                    SEPARATOR + mRows + SEPARATOR + mOutcome + SEPARATOR + mReasons;
+        }
+
+        // Null for a line that isn't a record, e.g. one cut short
+        private static Record fromLine(String line) {
+            String[] fields = line.split(SEPARATOR, -1);
+            if (fields.length != 8) {
+                return null;
+            }
+            try {
+                return new Record(Long.parseLong(fields[0]), fields[1], fields[2],
+                        Long.parseLong(fields[3]), Long.parseLong(fields[4]),
+                        Integer.parseInt(fields[5]), fields[6], fields[7]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.TodaySnapshot;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Every request for an immediate sync goes through here, along with why it's made.  Requests
+ * are coalesced instead of each starting a full network sync of its own:
+ * <ul>
+ * <li>A request made while a sync is already requested, but not started yet, is merged into
+ * it.</li>
+ * <li>A request made while a sync is running is merged into it, unless it follows a change of
+ * the locations, which the running sync may have read before.  Otherwise one more sync is
+ * requested, and later requests are merged into that one.</li>
+ * </ul>
+ * A watch asking for data is served from what is stored, without a sync, as long as
+ * {@link #isForecastFresh()}: see {@link SunshineDataSyncRequestService}.
+ * The reasons of the requests merged into a sync, before or while it runs, are recorded along
+ * with its {@link SyncMetrics}.  Syncs started by the system, e.g. the periodic ones, have the
+ * reason {@link #REASON_SCHEDULED}, along with those of the requests still pending: whatever
+ * sync starts serves them.
+ */
+public class SyncRequestCoordinator {
+
+    private static final String LOG_TAG = SyncRequestCoordinator.class.getSimpleName();
+
+    public static final String REASON_ACCOUNT_CREATED = "account_created";
+    public static final String REASON_LOCATION_CHANGED = "location_changed";
+    public static final String REASON_FAVOURITES_CHANGED = "favourites_changed";
+    public static final String REASON_WATCH_REQUEST = "watch_request";
+    public static final String REASON_SCHEDULED = "scheduled";
+
+    // What became of a request
+    static final int DECISION_REQUESTED = 0;
+    static final int DECISION_MERGED = 1;
+
+    // Sync extra: the reasons of the sync, joined by REASON_SEPARATOR
+    static final String EXTRA_REASONS = "sunshine_sync_reasons";
+    private static final String REASON_SEPARATOR = "+";
+
+    // An expedited sync starts within seconds: one that hasn't after this long may have been
+    // dropped by the system, so requests aren't merged into it any longer but requested again
+    private static final long PENDING_TIMEOUT_MILLIS = 60 * 1000;
+
+    static final String PREFS_NAME = "sync_requests";
+    private static final String KEY_LAST_SYNC = "last_sync";
+
+    /**
+     * Where requests end up, the sync framework but in tests.
+     */
+    interface SyncRequester {
+        void requestSync(Bundle extras);
+    }
+
+    private static SyncRequestCoordinator sInstance;
+
+    private final Context mContext;
+    private final SyncRequester mRequester;
+
+    // The sync requested and not started yet, if any
+    private final Set<String> mPendingReasons = new LinkedHashSet<String>();
+    private long mPendingSince = -1;
+
+    // The sync running, if any, and the reasons of the requests merged into it
+    private final Set<String> mRunningLocations = new HashSet<String>();
+    private final Set<String> mRunningReasons = new LinkedHashSet<String>();
+    private boolean mRunning;
+
+    SyncRequestCoordinator(Context context, SyncRequester requester) {
+        mContext = context.getApplicationContext();
+        mRequester = requester;
+    }
+
+    /**
+     * @return the coordinator of the app's syncs.
+     */
+    public static synchronized SyncRequestCoordinator get(final Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncRequestCoordinator(context, new SyncRequester() {
+                @Override
+                public void requestSync(Bundle extras) {
+                    SunshineSyncAdapter.requestExpeditedSync(context.getApplicationContext(),
+                            extras);
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    /**
+     * Requests a sync, or merges the request with one already requested or running.
+     *
+     * @param reason          Why the sync is needed, one of the REASON_ constants.
+     * @param locationSetting The location the request is about, or null for all of them.
+     * @return what became of the request, one of the DECISION_ constants.
+     */
+    int requestSync(String reason, String locationSetting) {
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            if (mPendingSince != -1 && now - mPendingSince < PENDING_TIMEOUT_MILLIS) {
+                mPendingReasons.add(reason);
+                Log.d(LOG_TAG, reason + " merged into the requested sync");
+                return DECISION_MERGED;
+            }
+            if (mRunning && !changesLocations(reason)
+                    && (locationSetting == null || mRunningLocations.contains(locationSetting))) {
+                mRunningReasons.add(reason);
+                Log.d(LOG_TAG, reason + " merged into the running sync");
+                return DECISION_MERGED;
+            }
+            // The reasons of a requested sync that never started are the new one's too
+            mPendingReasons.add(reason);
+            mPendingSince = now;
+        }
+        Bundle extras = new Bundle();
+        extras.putString(EXTRA_REASONS, reason);
+        mRequester.requestSync(extras);
+        Log.d(LOG_TAG, "Sync requested: " + reason);
+        return DECISION_REQUESTED;
+    }
+
+    /**
+     * Called by the sync adapter as a network sync starts.
+     *
+     * @param extras          The extras the sync was requested with.
+     * @param locationSettings The locations the sync is about to sync.
+     * @return the reasons of the sync so far, joined for the {@link SyncMetrics}.
+     */
+    synchronized String onSyncStarted(Bundle extras, Collection<String> locationSettings) {
+        mRunningReasons.clear();
+        String requested = extras.getString(EXTRA_REASONS);
+        if (requested != null) {
+            Collections.addAll(mRunningReasons,
+                    TextUtils.split(requested, "\\" + REASON_SEPARATOR));
+        } else {
+            mRunningReasons.add(REASON_SCHEDULED);
+        }
+        // Whichever sync starts, the requests merged so far are served by it, and the one
+        // requested may have been dropped
+        mRunningReasons.addAll(mPendingReasons);
+        mPendingReasons.clear();
+        mPendingSince = -1;
+        mRunning = true;
+        mRunningLocations.clear();
+        mRunningLocations.addAll(locationSettings);
+        return TextUtils.join(REASON_SEPARATOR, mRunningReasons);
+    }
+
+    /**
+     * Called by the sync adapter once a network sync is done.
+     *
+     * @return the reasons of the sync, those of the requests merged while it ran included,
+     * joined for the {@link SyncMetrics}.
+     */
+    synchronized String onSyncFinished() {
+        mRunning = false;
+        mRunningLocations.clear();
+        String reasons = TextUtils.join(REASON_SEPARATOR, mRunningReasons);
+        mRunningReasons.clear();
+        return reasons;
+    }
+
+    /**
+     * Called by the sync adapter once the forecast of the preferred location is fetched and
+     * stored, or found current by the server.  A sync where it failed doesn't make the stored
+     * forecast any fresher.
+     */
+    void onForecastFetched() {
+        getPrefs().edit().putLong(KEY_LAST_SYNC, System.currentTimeMillis()).commit();
+    }
+
+    // The running sync read the locations before they changed
+    private static boolean changesLocations(String reason) {
+        return REASON_LOCATION_CHANGED.equals(reason) || REASON_FAVOURITES_CHANGED.equals(reason)
+                || REASON_ACCOUNT_CREATED.equals(reason);
+    }
+
+    /**
+     * @return whether today's forecast of the preferred location is stored, and was fetched
+     * within the interval of the periodic sync the {@link SyncScheduler} last requested: that
+     * sync would have refreshed it otherwise.  Don't call this from the UI thread: it may query
+     * the forecast.
+     */
+    boolean isForecastFresh() {
+        long lastSync = getPrefs().getLong(KEY_LAST_SYNC, 0);
+        long maxAgeMillis = SyncScheduler.get(mContext).getInterval() * 1000L;
+        return System.currentTimeMillis() - lastSync < maxAgeMillis
+                && TodaySnapshot.get(mContext) != null;
+    }
+
+    private SharedPreferences getPrefs() {
+        return mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
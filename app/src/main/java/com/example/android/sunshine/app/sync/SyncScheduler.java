@@ -0,0 +1,407 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Picks when the next periodic sync runs, instead of every
+ * {@link SunshineSyncAdapter#SYNC_INTERVAL} whatever the conditions.  After every network sync
+ * the interval is decided again, from that base one scaled by:
+ * <ul>
+ * <li>How much the weather moves: the share of the synced days that changed, smoothed over the
+ * last syncs.  A settled forecast is synced less often, a changing one more often.</li>
+ * <li>How far the stored forecast of the preferred location still reaches, since the list, the
+ * widgets and the watch all start at today: a forecast running short is synced sooner.</li>
+ * <li>The network: syncs are spread out on a metered one.</li>
+ * <li>The battery: syncs are brought closer while charging, and spread out when it's low.</li>
+ * </ul>
+ * At night the next sync is held back until the morning, so there is one fresh forecast when the
+ * user wakes up rather than several nobody reads.  The interval always stays between
+ * {@link #MIN_INTERVAL} and {@link #MAX_INTERVAL}.
+ *
+ * The last decision, with the conditions it was made in, is kept: see
+ * {@link #getLastDecision()}.
+ */
+public class SyncScheduler {
+
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // Bounds of the interval, in seconds
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // Volatility of the forecast when nothing is known yet, scaling the interval by 1
+    static final float DEFAULT_VOLATILITY = 0.25f;
+    // Weight of the last sync in the smoothed volatility
+    private static final float VOLATILITY_WEIGHT = 0.5f;
+
+    // Below this many days from today on, the stored forecast runs short
+    static final int MIN_DAYS_AHEAD = 7;
+
+    // The night, in local hours, and how early before its end the sync may run
+    static final int NIGHT_START_HOUR = 23;
+    static final int NIGHT_END_HOUR = 6;
+    private static final int NIGHT_FLEX = 60 * 60;
+
+    static final int LOW_BATTERY_PERCENT = 15;
+
+    static final String PREFS_NAME = "sync_schedule";
+    private static final String KEY_VOLATILITY = "volatility";
+    private static final String KEY_DECIDED_AT = "decided_at";
+    private static final String KEY_DAYS_AHEAD = "days_ahead";
+    private static final String KEY_MINUTE_OF_DAY = "minute_of_day";
+    private static final String KEY_METERED = "metered";
+    private static final String KEY_BATTERY_PERCENT = "battery_percent";
+    private static final String KEY_CHARGING = "charging";
+
+    /**
+     * Where decisions end up, the sync framework but in tests.
+     */
+    interface PeriodicSyncRequester {
+        void requestPeriodicSync(int syncInterval, int flexTime);
+    }
+
+    private static SyncScheduler sInstance;
+
+    private final Context mContext;
+    private final PeriodicSyncRequester mRequester;
+
+    SyncScheduler(Context context, PeriodicSyncRequester requester) {
+        mContext = context.getApplicationContext();
+        mRequester = requester;
+    }
+
+    /**
+     * @return the scheduler of the app's periodic syncs.
+     */
+    public static synchronized SyncScheduler get(final Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncScheduler(context, new PeriodicSyncRequester() {
+                @Override
+                public void requestPeriodicSync(int syncInterval, int flexTime) {
+                    SunshineSyncAdapter.configurePeriodicSync(context.getApplicationContext(),
+                            syncInterval, flexTime);
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    /**
+     * Swaps the scheduler, so tests of the sync adapter don't reschedule the app's syncs.  Null
+     * restores the default one.
+     */
+    static synchronized void setInstance(SyncScheduler scheduler) {
+        sInstance = scheduler;
+    }
+
+    /**
+     * Decides when the next sync runs, and requests it.  Called by the sync adapter once a
+     * network sync is done.
+     *
+     * @param stages The stages of that sync, see {@link SyncMetrics.Sync#getStages()}.
+     * @return the decision.
+     */
+    Decision reschedule(List<SyncMetrics.Record> stages) {
+        Decision decision;
+        synchronized (this) {
+            SharedPreferences prefs = getPrefs();
+            float volatility = prefs.getFloat(KEY_VOLATILITY, DEFAULT_VOLATILITY);
+            float lastVolatility = getVolatility(stages);
+            if (lastVolatility >= 0) {
+                volatility = prefs.contains(KEY_VOLATILITY)
+                        ? VOLATILITY_WEIGHT * lastVolatility
+                                + (1 - VOLATILITY_WEIGHT) * volatility
+                        : lastVolatility;
+            }
+
+            Calendar calendar = Calendar.getInstance();
+            Intent battery = mContext.registerReceiver(null,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            ConnectivityManager cm =
+                    (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            Conditions conditions = new Conditions(
+                    volatility,
+                    getDaysAhead(),
+                    calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE),
+                    cm.isActiveNetworkMetered(),
+                    getBatteryPercent(battery),
+                    battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0);
+            decision = decide(calendar.getTimeInMillis(), conditions);
+
+            prefs.edit()
+                    .putFloat(KEY_VOLATILITY, conditions.mVolatility)
+                    .putLong(KEY_DECIDED_AT, decision.mDecidedAt)
+                    .putInt(KEY_DAYS_AHEAD, conditions.mDaysAhead)
+                    .putInt(KEY_MINUTE_OF_DAY, conditions.mMinuteOfDay)
+                    .putBoolean(KEY_METERED, conditions.mMetered)
+                    .putInt(KEY_BATTERY_PERCENT, conditions.mBatteryPercent)
+                    .putBoolean(KEY_CHARGING, conditions.mCharging)
+                    .commit();
+        }
+        Log.d(LOG_TAG, decision.toString());
+        mRequester.requestPeriodicSync(decision.mInterval, decision.mFlex);
+        return decision;
+    }
+
+    /**
+     * @return the last decision, or null if none was made yet.
+     */
+    public synchronized Decision getLastDecision() {
+        SharedPreferences prefs = getPrefs();
+        if (!prefs.contains(KEY_DECIDED_AT)) {
+            return null;
+        }
+        return decide(prefs.getLong(KEY_DECIDED_AT, 0), new Conditions(
+                prefs.getFloat(KEY_VOLATILITY, DEFAULT_VOLATILITY),
+                prefs.getInt(KEY_DAYS_AHEAD, 0),
+                prefs.getInt(KEY_MINUTE_OF_DAY, 0),
+                prefs.getBoolean(KEY_METERED, false),
+                prefs.getInt(KEY_BATTERY_PERCENT, 100),
+                prefs.getBoolean(KEY_CHARGING, false)));
+    }
+
+    /**
+     * @return the interval of the periodic sync last requested, in seconds, the base one until
+     * a sync decided it.
+     */
+    public int getInterval() {
+        Decision decision = getLastDecision();
+        return decision != null ? decision.getInterval() : SunshineSyncAdapter.SYNC_INTERVAL;
+    }
+
+    /**
+     * Decides the interval of the next sync in the given conditions.
+     */
+    static Decision decide(long decidedAt, Conditions conditions) {
+        // Volatility 0 gives 1.5, the default 1, and 0.5 or more gives 0.5
+        float volatilityFactor = Math.max(0.5f, Math.min(1.5f,
+                1.5f - 2 * conditions.mVolatility));
+        float daysAheadFactor = conditions.mDaysAhead < MIN_DAYS_AHEAD ? 0.5f : 1f;
+        float networkFactor = conditions.mMetered ? 1.5f : 1f;
+        float batteryFactor = conditions.mCharging ? 0.75f
+                : conditions.mBatteryPercent <= LOW_BATTERY_PERCENT ? 2f : 1f;
+
+        int interval = Math.round(SunshineSyncAdapter.SYNC_INTERVAL * volatilityFactor
+                * daysAheadFactor * networkFactor * batteryFactor);
+        int flex = interval / 3;
+        int untilMorning = getSecondsUntilMorning(conditions.mMinuteOfDay);
+        boolean night = untilMorning > interval;
+        if (night) {
+            // Held until the morning, and run within the hour before it
+            interval = untilMorning;
+            flex = Math.min(flex, NIGHT_FLEX);
+        }
+        interval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+        flex = Math.min(flex, interval / 3);
+
+        return new Decision(decidedAt, conditions, volatilityFactor, daysAheadFactor,
+                networkFactor, batteryFactor, night, interval, flex);
+    }
+
+    /**
+     * @return the share of the synced days that changed, or -1 if nothing was synced, e.g. as
+     * every location failed.
+     */
+    static float getVolatility(List<SyncMetrics.Record> stages) {
+        int parsedRows = 0;
+        int changedRows = 0;
+        boolean notModified = false;
+        for (SyncMetrics.Record stage : stages) {
+            if (SyncMetrics.STAGE_PARSE.equals(stage.getStage())) {
+                parsedRows += stage.getRows();
+            } else if (SyncMetrics.STAGE_STORE.equals(stage.getStage())) {
+                changedRows += stage.getRows();
+            } else if (SyncMetrics.STAGE_CONNECT.equals(stage.getStage())
+                    && SyncMetrics.OUTCOME_NOT_MODIFIED.equals(stage.getOutcome())) {
+                notModified = true;
+            }
+        }
+        if (parsedRows > 0) {
+            return Math.min(1f, changedRows / (float) parsedRows);
+        }
+        // The server said nothing changed
+        return notModified ? 0f : -1f;
+    }
+
+    // 0 outside of the night
+    private static int getSecondsUntilMorning(int minuteOfDay) {
+        int morning = NIGHT_END_HOUR * 60;
+        if (minuteOfDay >= NIGHT_START_HOUR * 60) {
+            return (24 * 60 - minuteOfDay + morning) * 60;
+        } else if (minuteOfDay < morning) {
+            return (morning - minuteOfDay) * 60;
+        }
+        return 0;
+    }
+
+    // As published by the sync, without querying
+    private int getDaysAhead() {
+        ForecastSnapshot snapshot =
+                ForecastSnapshot.open(mContext, Utility.getPreferredLocation(mContext));
+        if (snapshot == null) {
+            return 0;
+        }
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        return snapshot.getCount() - snapshot.firstRowFrom(today);
+    }
+
+    private static int getBatteryPercent(Intent battery) {
+        if (battery == null) {
+            return 100;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level < 0 || scale <= 0) {
+            return 100;
+        }
+        return level * 100 / scale;
+    }
+
+    private SharedPreferences getPrefs() {
+        return mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * What the next sync is decided from.
+     */
+    public static final class Conditions {
+        private final float mVolatility;
+        private final int mDaysAhead;
+        private final int mMinuteOfDay;
+        private final boolean mMetered;
+        private final int mBatteryPercent;
+        private final boolean mCharging;
+
+        Conditions(float volatility, int daysAhead, int minuteOfDay, boolean metered,
+                   int batteryPercent, boolean charging) {
+            mVolatility = volatility;
+            mDaysAhead = daysAhead;
+            mMinuteOfDay = minuteOfDay;
+            mMetered = metered;
+            mBatteryPercent = batteryPercent;
+            mCharging = charging;
+        }
+
+        /**
+         * @return the share of the synced days that changed, smoothed over the last syncs.
+         */
+        public float getVolatility() {
+            return mVolatility;
+        }
+
+        /**
+         * @return how many days of the preferred location's forecast are stored from today on.
+         */
+        public int getDaysAhead() {
+            return mDaysAhead;
+        }
+
+        /**
+         * @return the local time, in minutes since midnight.
+         */
+        public int getMinuteOfDay() {
+            return mMinuteOfDay;
+        }
+
+        public boolean isMetered() {
+            return mMetered;
+        }
+
+        public int getBatteryPercent() {
+            return mBatteryPercent;
+        }
+
+        public boolean isCharging() {
+            return mCharging;
+        }
+    }
+
+    /**
+     * When the next sync runs, and why.
+     */
+    public static final class Decision {
+        private final long mDecidedAt;
+        private final Conditions mConditions;
+        private final float mVolatilityFactor;
+        private final float mDaysAheadFactor;
+        private final float mNetworkFactor;
+        private final float mBatteryFactor;
+        private final boolean mNight;
+        private final int mInterval;
+        private final int mFlex;
+
+        private Decision(long decidedAt, Conditions conditions, float volatilityFactor,
+                         float daysAheadFactor, float networkFactor, float batteryFactor,
+                         boolean night, int interval, int flex) {
+            mDecidedAt = decidedAt;
+            mConditions = conditions;
+            mVolatilityFactor = volatilityFactor;
+            mDaysAheadFactor = daysAheadFactor;
+            mNetworkFactor = networkFactor;
+            mBatteryFactor = batteryFactor;
+            mNight = night;
+            mInterval = interval;
+            mFlex = flex;
+        }
+
+        /**
+         * @return when the decision was made, in milliseconds.
+         */
+        public long getDecidedAt() {
+            return mDecidedAt;
+        }
+
+        public Conditions getConditions() {
+            return mConditions;
+        }
+
+        /**
+         * @return the interval of the periodic sync, in seconds.
+         */
+        public int getInterval() {
+            return mInterval;
+        }
+
+        /**
+         * @return how early in the interval the sync may run, in seconds.
+         */
+        public int getFlex() {
+            return mFlex;
+        }
+
+        /**
+         * @return whether the decision was made at night and held the sync until the morning,
+         * which was further away than the interval decided otherwise.
+         */
+        public boolean isNight() {
+            return mNight;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "Next sync in %ds (flex %ds): volatility %.2f x%.2f,"
+                            + " %d days ahead x%.2f, %s network x%.2f, battery %d%%%s x%.2f%s",
+                    mInterval, mFlex,
+                    mConditions.mVolatility, mVolatilityFactor,
+                    mConditions.mDaysAhead, mDaysAheadFactor,
+                    mConditions.mMetered ? "metered" : "unmetered", mNetworkFactor,
+                    mConditions.mBatteryPercent, mConditions.mCharging ? " charging" : "",
+                    mBatteryFactor,
+                    mNight ? ", night" : "");
+        }
+    }
+}
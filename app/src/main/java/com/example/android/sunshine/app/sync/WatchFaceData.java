@@ -0,0 +1,165 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.TodaySnapshot;
+import com.example.android.sunshine.app.Utility;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Today's weather as sent to the watch face, in the data item it listens to.  What was last
+ * sent is kept in the preferences, so the sync only sends what changed.
+ */
+final class WatchFaceData {
+
+    private static final String LOG_TAG = WatchFaceData.class.getSimpleName();
+
+    private static final String WATCH_FACE_DATA_PATH = "/sunshine-watch-face-data";
+    private static final String WATCH_FACE_HIGH_TEMP_KEY = "high-temp";
+    private static final String WATCH_FACE_LOW_TEMP_KEY = "low-temp";
+    private static final String WATCH_FACE_WEATHER_ICON_KEY = "weather-icon";
+    private static final String WATCH_FACE_DATA_TIMESTAMP_KEY = "timestamp";
+
+    private final String mHighText;
+    private final String mLowText;
+    private final int mWeatherId;
+    private final Bitmap mIcon;
+
+    /**
+     * @param icon The large icon of the weather, see {@link #loadLargeIcon}.
+     */
+    WatchFaceData(Context context, TodaySnapshot today, Bitmap icon) {
+        boolean isMetric = Utility.isMetric(context);
+        mHighText = today.getFormattedHigh(isMetric);
+        mLowText = today.getFormattedLow(isMetric);
+        mWeatherId = today.getWeatherId();
+        mIcon = icon;
+    }
+
+    /**
+     * Loads the large icon of a weather condition, at the size of a notification's.  Don't call
+     * this from the UI thread.
+     */
+    static Bitmap loadLargeIcon(Context context, int weatherId) {
+        Resources resources = context.getResources();
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        @SuppressLint("InlinedApi")
+        int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        @SuppressLint("InlinedApi")
+        int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+        // Retrieve the large icon
+        try {
+            return Glide.with(context)
+                    .load(artUrl)
+                    .asBitmap()
+                    .error(artResourceId)
+                    .fitCenter()
+                    .into(largeIconWidth, largeIconHeight).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+            return BitmapFactory.decodeResource(resources, artResourceId);
+        }
+    }
+
+    /**
+     * Builds the data item to send.
+     *
+     * @param full Whether to send every field, e.g. to a watch face just started, rather than
+     *             only the ones that changed since last sent.
+     * @return the request, or null if nothing changed.
+     */
+    PutDataRequest toRequest(Context context, boolean full) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean highChanged = full || !mHighText.equals(prefs.getString(
+                context.getString(R.string.pref_last_watch_face_high_temp_key), ""));
+        boolean lowChanged = full || !mLowText.equals(prefs.getString(
+                context.getString(R.string.pref_last_watch_face_low_temp_key), ""));
+        boolean weatherChanged = full || mWeatherId != prefs.getInt(
+                context.getString(R.string.pref_last_watch_face_weather_id_key), -1);
+        if (!highChanged && !lowChanged && !weatherChanged) {
+            return null;
+        }
+
+        PutDataMapRequest dataMap = PutDataMapRequest.create(WATCH_FACE_DATA_PATH);
+        if (highChanged) {
+            dataMap.getDataMap().putString(WATCH_FACE_HIGH_TEMP_KEY, mHighText);
+        }
+        if (lowChanged) {
+            dataMap.getDataMap().putString(WATCH_FACE_LOW_TEMP_KEY, mLowText);
+        }
+        if (weatherChanged) {
+            dataMap.getDataMap().putAsset(WATCH_FACE_WEATHER_ICON_KEY, toAsset(mIcon));
+        }
+        // Always changes the item, so the watch face hears of it even if the data is the same
+        dataMap.getDataMap().putLong(WATCH_FACE_DATA_TIMESTAMP_KEY, System.currentTimeMillis());
+
+        PutDataRequest request = dataMap.asPutDataRequest();
+        request.setUrgent();
+        return request;
+    }
+
+    /**
+     * Records the data as the last sent, once the data item is put.
+     */
+    void onSent(Context context, boolean success) {
+        Log.d(LOG_TAG, "Sending data (" + mHighText + " - " + mLowText + " - " + mWeatherId
+                + ") was successful: " + success);
+        if (!success) {
+            return;
+        }
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(context).edit();
+        editor.putString(context.getString(R.string.pref_last_watch_face_high_temp_key),
+                mHighText);
+        editor.putString(context.getString(R.string.pref_last_watch_face_low_temp_key),
+                mLowText);
+        editor.putInt(context.getString(R.string.pref_last_watch_face_weather_id_key),
+                mWeatherId);
+        editor.commit();
+    }
+
+    /**
+     * Builds an {@link com.google.android.gms.wearable.Asset} from a bitmap.
+     */
+    private static Asset toAsset(Bitmap bitmap) {
+        ByteArrayOutputStream byteStream = null;
+        try {
+            byteStream = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
+            return Asset.createFromBytes(byteStream.toByteArray());
+        } finally {
+            if (null != byteStream) {
+                try {
+                    byteStream.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
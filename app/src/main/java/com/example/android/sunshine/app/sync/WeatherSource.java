@@ -0,0 +1,94 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Somewhere the sync adapter can fetch forecasts from.  Implementations stream the rows of the
+ * forecast to a {@link ForecastJsonParser.Listener} instead of returning them, so a forecast is
+ * never held in memory as a whole.
+ */
+interface WeatherSource {
+
+    /**
+     * Fetches the forecast for a location.  When validators of a previously stored forecast are
+     * given, the source may answer with {@link Response#isNotModified()} instead of streaming the
+     * forecast again.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityId The id the server gave to the location in a previous forecast, or -1 if it
+     *               isn't known yet.
+     * @param eTag ETag of the stored forecast, or null.
+     * @param lastModified Last-Modified header of the stored forecast, or null.
+     * @param listener Receives the city and every day of the forecast.
+     * @throws IOException if the forecast could not be fetched.
+     * @throws JSONException if the forecast could not be parsed.
+     */
+    Response fetchForecast(String locationSetting, long cityId, String eTag, String lastModified,
+                           ForecastJsonParser.Listener listener)
+            throws IOException, JSONException;
+
+    /**
+     * Outcome of a fetch, along with the validators to send on the next one and what
+     * {@link SyncMetrics} records of it.
+     */
+    final class Response {
+        private final boolean mNotModified;
+        private final int mMessageCode;
+        private final String mETag;
+        private final String mLastModified;
+        private final long mConnectNanos;
+        private final long mBytesRead;
+
+        Response(boolean notModified, int messageCode, String eTag, String lastModified,
+                 long connectNanos, long bytesRead) {
+            mNotModified = notModified;
+            mMessageCode = messageCode;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mConnectNanos = connectNanos;
+            mBytesRead = bytesRead;
+        }
+
+        static Response notModified(long connectNanos) {
+            return new Response(true, HttpURLConnection.HTTP_NOT_MODIFIED, null, null,
+                    connectNanos, 0);
+        }
+
+        boolean isNotModified() {
+            return mNotModified;
+        }
+
+        /**
+         * @return the message code reported in the forecast body.
+         */
+        int getMessageCode() {
+            return mMessageCode;
+        }
+
+        String getETag() {
+            return mETag;
+        }
+
+        String getLastModified() {
+            return mLastModified;
+        }
+
+        /**
+         * @return how long it took to get an answer, before the forecast was read, in
+         * nanoseconds.
+         */
+        long getConnectNanos() {
+            return mConnectNanos;
+        }
+
+        /**
+         * @return the size of the forecast read, 0 if it wasn't modified.
+         */
+        long getBytesRead() {
+            return mBytesRead;
+        }
+    }
+}
@@ -16,6 +16,7 @@ import com.bumptech.glide.Glide;
 import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 
 import java.util.concurrent.ExecutionException;
@@ -26,8 +27,8 @@ import java.util.concurrent.ExecutionException;
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     public final String LOG_TAG = DetailWidgetRemoteViewsService.class.getSimpleName();
+    // Only queried when the sync hasn't published the forecast of the location yet
     private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
             WeatherContract.WeatherEntry.COLUMN_DATE,
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
@@ -35,16 +36,19 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
             WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
     };
     // these indices must match the projection
-    static final int INDEX_WEATHER_ID = 0;
-    static final int INDEX_WEATHER_DATE = 1;
-    static final int INDEX_WEATHER_CONDITION_ID = 2;
-    static final int INDEX_WEATHER_DESC = 3;
-    static final int INDEX_WEATHER_MAX_TEMP = 4;
-    static final int INDEX_WEATHER_MIN_TEMP = 5;
+    static final int INDEX_WEATHER_DATE = 0;
+    static final int INDEX_WEATHER_CONDITION_ID = 1;
+    static final int INDEX_WEATHER_DESC = 2;
+    static final int INDEX_WEATHER_MAX_TEMP = 3;
+    static final int INDEX_WEATHER_MIN_TEMP = 4;
 
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
+            // The published forecast, read from the first row on or after today...
+            private ForecastSnapshot snapshot = null;
+            private int firstRow = 0;
+            // ...or, when there is none, the forecast queried from the provider
             private Cursor data = null;
 
             @Override
@@ -56,13 +60,20 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
             public void onDataSetChanged() {
                 if (data != null) {
                     data.close();
+                    data = null;
+                }
+                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
+                snapshot = ForecastSnapshot.open(DetailWidgetRemoteViewsService.this, location);
+                if (snapshot != null) {
+                    firstRow = snapshot.firstRowFrom(
+                            WeatherContract.normalizeDate(System.currentTimeMillis()));
+                    return;
                 }
                 // This method is called by the app hosting the widget (e.g., the launcher)
                 // However, our ContentProvider is not exported so it doesn't have access to the
                 // data. Therefore we need to clear (and finally restore) the calling identity so
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
-                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
                 Uri weatherForLocationUri = WeatherContract.WeatherEntry
                         .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
                 data = getContentResolver().query(weatherForLocationUri,
@@ -75,6 +86,7 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public void onDestroy() {
+                snapshot = null;
                 if (data != null) {
                     data.close();
                     data = null;
@@ -83,18 +95,22 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public int getCount() {
+                if (snapshot != null) {
+                    return snapshot.getCount() - firstRow;
+                }
                 return data == null ? 0 : data.getCount();
             }
 
             @Override
             public RemoteViews getViewAt(int position) {
-                if (position == AdapterView.INVALID_POSITION ||
-                        data == null || !data.moveToPosition(position)) {
+                if (position == AdapterView.INVALID_POSITION || !moveToPosition(position)) {
                     return null;
                 }
                 RemoteViews views = new RemoteViews(getPackageName(),
                         R.layout.widget_detail_list_item);
-                int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
+                int weatherId = snapshot != null
+                        ? snapshot.getWeatherId(firstRow + position)
+                        : data.getInt(INDEX_WEATHER_CONDITION_ID);
                 int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
                 Bitmap weatherArtImage = null;
                 if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
@@ -110,12 +126,18 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                         Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
                     }
                 }
-                String description = data.getString(INDEX_WEATHER_DESC);
-                long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
+                String description = snapshot != null
+                        ? snapshot.getShortDesc(firstRow + position)
+                        : data.getString(INDEX_WEATHER_DESC);
+                long dateInMillis = getDate(position);
                 String formattedDate = Utility.getFriendlyDayString(
                         DetailWidgetRemoteViewsService.this, dateInMillis, false);
-                double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
-                double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
+                double maxTemp = snapshot != null
+                        ? snapshot.getMaxTemp(firstRow + position)
+                        : data.getDouble(INDEX_WEATHER_MAX_TEMP);
+                double minTemp = snapshot != null
+                        ? snapshot.getMinTemp(firstRow + position)
+                        : data.getDouble(INDEX_WEATHER_MIN_TEMP);
                 String formattedMaxTemperature =
                         Utility.formatTemperature(DetailWidgetRemoteViewsService.this, maxTemp);
                 String formattedMinTemperature =
@@ -144,6 +166,19 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 return views;
             }
 
+            private boolean moveToPosition(int position) {
+                if (snapshot != null) {
+                    return position < snapshot.getCount() - firstRow;
+                }
+                return data != null && data.moveToPosition(position);
+            }
+
+            private long getDate(int position) {
+                return snapshot != null
+                        ? snapshot.getDate(firstRow + position)
+                        : data.getLong(INDEX_WEATHER_DATE);
+            }
+
             @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
             private void setRemoteContentDescription(RemoteViews views, String description) {
                 views.setContentDescription(R.id.widget_icon, description);
@@ -161,8 +196,9 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public long getItemId(int position) {
-                if (data.moveToPosition(position))
-                    return data.getLong(INDEX_WEATHER_ID);
+                // A location has one forecast a day, whichever way it was read
+                if (moveToPosition(position))
+                    return getDate(position);
                 return position;
             }
 